@@ -0,0 +1,148 @@
+package rsaencryption.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsaencryption.BlockFormat;
+import rsaencryption.KeyPair;
+import rsaencryption.KeySet;
+import rsaencryption.LoadedKey;
+import rsaencryption.RSA;
+
+/**
+ * Measures streaming encryption and decryption end to end, from an input
+ * stream to an output stream, so payloads larger than the heap can be used.
+ * The payload is a 1 MB random sample repeated up to payloadBytes.
+ * The default grid finishes in minutes; larger payloads and keys are given with
+ * -p, e.g. -p payloadBytes=1073741824 -p keyBits=2048, and can take hours.
+ * @author Ryan N May
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class EndToEndBenchmark
+{
+	private static final int SAMPLE_BYTES = 1 << 20;
+
+	@Param({"1024", "1048576"})
+	public long payloadBytes;
+	@Param({"64", "512"})
+	public int keyBits;
+	@Param({"1"})
+	public int threads;
+
+	private LoadedKey publicKey;
+	private LoadedKey privateKey;
+	private byte[] plainSample;
+	private byte[] cipherSample;
+	private long cipherBytes;
+	private ExecutorService pool;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		KeyPair keys = KeySet.generateKeyPair(keyBits);
+		publicKey = new LoadedKey(keys.publicKey);
+		privateKey = new LoadedKey(keys.privateKey);
+		BlockFormat format = publicKey.getBlockFormat();
+		// Whole blocks only, so the repeated cipher sample is itself valid ciphertext
+		plainSample = new byte[SAMPLE_BYTES - SAMPLE_BYTES % format.getDataBytes()];
+		new Random(42).nextBytes(plainSample);
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		RSA.encryptStream(new ByteArrayInputStream(plainSample), encrypted, publicKey, null, 1);
+		cipherSample = encrypted.toByteArray();
+		cipherBytes = format.encryptedLength(payloadBytes);
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+	@TearDown
+	public void tearDown()
+	{
+		if(pool != null)
+			pool.shutdown();
+	}
+	@Benchmark
+	public long encrypt() throws IOException
+	{
+		CountingOutputStream out = new CountingOutputStream();
+		RSA.encryptStream(new RepeatingInputStream(plainSample, payloadBytes), out, publicKey, pool, threads);
+		return out.count;
+	}
+	@Benchmark
+	public long decrypt() throws IOException
+	{
+		CountingOutputStream out = new CountingOutputStream();
+		RSA.decryptStream(new RepeatingInputStream(cipherSample, cipherBytes), out, privateKey, pool, threads);
+		return out.count;
+	}
+
+	/** Serves length bytes by cycling through a sample */
+	static final class RepeatingInputStream extends InputStream
+	{
+		private final byte[] sample;
+		private long remaining;
+		private int position;
+
+		RepeatingInputStream(byte[] sample, long length)
+		{
+			this.sample = sample;
+			this.remaining = length;
+		}
+		@Override
+		public int read()
+		{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if(remaining == 0)
+				return -1;
+			int n = (int) Math.min(Math.min(len, remaining), sample.length - position);
+			System.arraycopy(sample, position, b, off, n);
+			position = (position + n) % sample.length;
+			remaining -= n;
+			return n;
+		}
+	}
+
+	/** Discards output, keeping only a byte count */
+	static final class CountingOutputStream extends OutputStream
+	{
+		long count;
+
+		@Override
+		public void write(int b)
+		{
+			count++;
+		}
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+}
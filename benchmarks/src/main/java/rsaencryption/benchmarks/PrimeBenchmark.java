@@ -0,0 +1,44 @@
+package rsaencryption.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsaencryption.KeySet;
+
+/**
+ * Measures prime generation latency per prime size
+ * @author Ryan N May
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PrimeBenchmark
+{
+	@Param({"32", "256", "512", "1024", "2048"})
+	public int bits;
+
+	@Benchmark
+	public BigInteger generatePrime()
+	{
+		return KeySet.generatePrime(bits);
+	}
+	@Benchmark
+	public long generateLegacyPrime()
+	{
+		return KeySet.generatePrime();
+	}
+}
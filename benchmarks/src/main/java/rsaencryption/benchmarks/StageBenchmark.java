@@ -0,0 +1,96 @@
+package rsaencryption.benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rsaencryption.BlockFormat;
+import rsaencryption.KeyPair;
+import rsaencryption.KeySet;
+import rsaencryption.LoadedKey;
+import rsaencryption.RSA;
+
+/**
+ * Measures each whole-array stage of the RSA pipeline on its own.
+ * Payloads are limited to what a single padded byte array can hold;
+ * EndToEndBenchmark covers the larger sizes through the streaming path.
+ * Sizes beyond the default grid are given with -p, e.g. -p payloadBytes=67108864.
+ * @author Ryan N May
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class StageBenchmark
+{
+	@Param({"1024", "1048576"})
+	public int payloadBytes;
+	@Param({"64", "512"})
+	public int keyBits;
+
+	private LoadedKey publicKey;
+	private LoadedKey privateKey;
+	private BlockFormat format;
+	private byte[] plain;
+	private byte[] padded;
+	private BigInteger[] blocks;
+	private BigInteger[] encrypted;
+
+	@Setup
+	public void setUp()
+	{
+		KeyPair keys = KeySet.generateKeyPair(keyBits);
+		publicKey = new LoadedKey(keys.publicKey);
+		privateKey = new LoadedKey(keys.privateKey);
+		format = publicKey.getBlockFormat();
+		plain = new byte[payloadBytes];
+		new Random(42).nextBytes(plain);
+		padded = RSA.padBytes(plain, format);
+		blocks = RSA.bytesToLongs(padded, format);
+		encrypted = RSA.performRSA(blocks, publicKey);
+	}
+	@Benchmark
+	public byte[] padBytes()
+	{
+		return RSA.padBytes(plain, format);
+	}
+	@Benchmark
+	public BigInteger[] bytesToLongs()
+	{
+		return RSA.bytesToLongs(padded, format);
+	}
+	@Benchmark
+	public BigInteger[] performRSAEncrypt()
+	{
+		return RSA.performRSA(blocks, publicKey);
+	}
+	@Benchmark
+	public BigInteger[] performRSADecrypt()
+	{
+		return RSA.performRSA(encrypted, privateKey);
+	}
+	@Benchmark
+	public byte[] longsToBytes()
+	{
+		return RSA.longsToBytes(encrypted, format);
+	}
+	@Benchmark
+	public byte[] unpadBytes()
+	{
+		return RSA.unpadBytes(padded, format);
+	}
+}
@@ -0,0 +1,394 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class encrypts or decrypts every file of a directory tree into a mirror tree.
+ * The tree is walked on the calling thread and cut into work items that run on a
+ * work-stealing pool: small files are packed together so each item carries enough
+ * work, large files are split into chunks written at their own offsets of a
+ * pre-sized output file, and everything in between is one item per file.
+ * The bytes buffered by queued and running items are bounded by a semaphore, so
+ * the walk pauses while the pool is behind. Each output file is identical to the
+ * output of RSA.encryptFile or RSA.decryptFile for the same input.
+ * @author Ryan N May
+ */
+public final class BatchEncryptor
+{
+	/** Files of at most this many bytes are packed together */
+	public static final int SMALL_FILE_BYTES = 256 << 10;
+	/** Input bytes gathered into one pack of small files */
+	public static final int PACK_BYTES = 4 << 20;
+	/** Largest number of files in one pack */
+	public static final int PACK_FILES = 1024;
+	/** Input bytes per chunk of a large file; larger files are split */
+	public static final int CHUNK_BYTES = 8 << 20;
+	private static final int PERMIT_BYTES = 1024;
+	private final LoadedKey key;
+	private final boolean encrypt;
+	private final BlockCodec reader;
+	private final BlockCodec writer;
+	private final ForkJoinPool pool;
+	private final Semaphore memory;
+	private final int permits;
+	private final LongAdder files = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param key (LoadedKey)
+	 * @param encrypt true to encrypt, false to decrypt (boolean)
+	 * @param pool pool the work items run on (ForkJoinPool)
+	 * @param maxInFlightBytes bound on input and output bytes buffered at once (long)
+	 */
+	public BatchEncryptor(LoadedKey key, boolean encrypt, ForkJoinPool pool, long maxInFlightBytes)
+	{
+		BlockFormat format = key.getBlockFormat();
+		this.key = key;
+		this.encrypt = encrypt;
+		this.reader = new BlockCodec(encrypt ? format.getDataBytes() : format.getBlockBytes(), 1);
+		this.writer = new BlockCodec(encrypt ? format.getBlockBytes() : format.getDataBytes(), 1);
+		this.pool = pool;
+		this.permits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlightBytes / PERMIT_BYTES));
+		this.memory = new Semaphore(permits);
+	}
+	/**
+	 * Encrypts or decrypts a directory tree with one pool thread per core
+	 * @param sourceRoot
+	 * @param targetRoot
+	 * @param keyFilePath
+	 * @param encrypt (boolean)
+	 * @param threads (int)
+	 * @param maxInFlightBytes (long)
+	 * @return summary of the run (Report)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static Report run(Path sourceRoot, Path targetRoot, String keyFilePath, boolean encrypt, int threads, long maxInFlightBytes) throws IOException, ClassNotFoundException
+	{
+		ForkJoinPool pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		try {
+			return new BatchEncryptor(RSA.getKeyCache().get(keyFilePath), encrypt, pool, maxInFlightBytes).run(sourceRoot, targetRoot);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	/**
+	 * Walks sourceRoot and writes each file to the same relative path under targetRoot,
+	 * returning once every file has been written or has failed
+	 * @param sourceRoot
+	 * @param targetRoot
+	 * @return summary of the run (Report)
+	 * @throws IOException if the tree cannot be walked
+	 */
+	public Report run(Path sourceRoot, Path targetRoot) throws IOException
+	{
+		long start = System.nanoTime();
+		Path source = sourceRoot.toAbsolutePath().normalize();
+		Path target = targetRoot.toAbsolutePath().normalize();
+		List<Path[]> pack = new ArrayList<>();
+		long[] packBytes = {0L};
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+			{
+				if(dir.equals(target))
+					return FileVisitResult.SKIP_SUBTREE;
+				try {
+					Files.createDirectories(target.resolve(source.relativize(dir)));
+				} catch(IOException ex) {
+					failures.add(dir + ": " + ex.getMessage());
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+			{
+				if(!attrs.isRegularFile())
+					return FileVisitResult.CONTINUE;
+				Path output = target.resolve(source.relativize(file));
+				long size = attrs.size();
+				if(size <= SMALL_FILE_BYTES)
+				{
+					pack.add(new Path[] {file, output});
+					packBytes[0] += size;
+					if(packBytes[0] >= PACK_BYTES || pack.size() >= PACK_FILES)
+					{
+						submitPack(new ArrayList<>(pack), packBytes[0]);
+						pack.clear();
+						packBytes[0] = 0L;
+					}
+				}
+				else
+					submitFile(file, output, size);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException ex)
+			{
+				failures.add(file + ": " + ex.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		if(!pack.isEmpty())
+			submitPack(pack, packBytes[0]);
+		// Every item releases its permits when it finishes, so holding all of them means all are done
+		memory.acquireUninterruptibly(permits);
+		memory.release(permits);
+		return new Report(files.sum(), failures, bytesRead.sum(), bytesWritten.sum(), System.nanoTime() - start);
+	}
+	/**
+	 * Queues one item for a whole file, or one item per chunk of a file larger than CHUNK_BYTES.
+	 * The LengthTrailer is written up front when encrypting; when decrypting the output
+	 * is trimmed to its length once the last chunk is written.
+	 */
+	private void submitFile(Path file, Path output, long size) throws IOException
+	{
+		int inWidth = reader.getWidth();
+		long plainLength = -1L;
+		long blockBytes = size;
+		try(RandomAccessFile out = new RandomAccessFile(output.toFile(), "rw")) {
+			if(!encrypt)
+			{
+				try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+					plainLength = LengthTrailer.read(in, key.getBlockFormat());
+				}
+				blockBytes = LengthTrailer.blockBytes(size, plainLength);
+			}
+			long end = (blockBytes + inWidth - 1) / inWidth * writer.getWidth();
+			out.setLength(end);
+			if(encrypt)
+			{
+				out.seek(end);
+				out.write(LengthTrailer.encode(size));
+			}
+		} catch(IOException ex) {
+			failures.add(file + ": " + ex.getMessage());
+			return;
+		}
+		long chunk = Math.max(inWidth, CHUNK_BYTES / inWidth * inWidth);
+		long chunks = (blockBytes + chunk - 1) / chunk;
+		ChunkedFile progress = new ChunkedFile(file, output, chunks, plainLength);
+		for(long offset = 0; offset < blockBytes; offset += chunk)
+		{
+			final long from = offset;
+			final int length = (int) Math.min(chunk, blockBytes - offset);
+			submit(weight(length), () -> progress.finished(transformChunk(file, output, from, length)));
+		}
+	}
+	private void submitPack(List<Path[]> pack, long bytes) throws IOException
+	{
+		submit(weight(bytes), () -> {
+			for(Path[] paths : pack)
+			{
+				try {
+					byte[] in = Files.readAllBytes(paths[0]);
+					byte[] out;
+					if(encrypt)
+					{
+						byte[] blocks = ContainerFormat.transformChunk(in, in.length, reader, writer, key, null, 1);
+						out = Arrays.copyOf(blocks, blocks.length + LengthTrailer.BYTES);
+						System.arraycopy(LengthTrailer.encode(in.length), 0, out, blocks.length, LengthTrailer.BYTES);
+					}
+					else
+					{
+						long length = in.length < LengthTrailer.BYTES ? -1L
+								: LengthTrailer.decode(ByteBuffer.wrap(in, in.length - LengthTrailer.BYTES, LengthTrailer.BYTES), in.length, key.getBlockFormat());
+						out = ContainerFormat.transformChunk(in, (int) LengthTrailer.blockBytes(in.length, length), reader, writer, key, null, 1);
+						if(length >= 0)
+							out = Arrays.copyOf(out, (int) length);
+					}
+					Files.write(paths[1], out);
+					files.increment();
+					bytesRead.add(in.length);
+					bytesWritten.add(out.length);
+				} catch(IOException | RuntimeException ex) {
+					failures.add(paths[0] + ": " + ex.getMessage());
+				}
+			}
+		});
+	}
+	/**
+	 * Reads, transforms and writes one chunk of a file
+	 * @return null on success, otherwise the failure (Exception)
+	 */
+	private Exception transformChunk(Path file, Path output, long offset, int length)
+	{
+		try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while(buffer.hasRemaining())
+				if(in.read(buffer, offset + buffer.position()) < 0)
+					throw new IOException("File shrank while it was read");
+			byte[] transformed = ContainerFormat.transformChunk(buffer.array(), length, reader, writer, key, null, 1);
+			ByteBuffer result = ByteBuffer.wrap(transformed);
+			long at = offset / reader.getWidth() * writer.getWidth();
+			while(result.hasRemaining())
+				at += out.write(result, at);
+			bytesRead.add(length);
+			bytesWritten.add(transformed.length);
+			return null;
+		} catch(IOException | RuntimeException ex) {
+			return ex;
+		}
+	}
+	/**
+	 * Waits for room in the memory bound, then runs task on the pool
+	 */
+	private void submit(int weight, Runnable task) throws IOException
+	{
+		try {
+			memory.acquire(weight);
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while scheduling files");
+		}
+		try {
+			pool.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					memory.release(weight);
+				}
+			});
+		} catch(RuntimeException ex) {
+			memory.release(weight);
+			throw ex;
+		}
+	}
+	/**
+	 * @return permits for an item reading inputBytes, counting its input and output buffers
+	 */
+	private int weight(long inputBytes)
+	{
+		long outputBytes = (inputBytes + reader.getWidth() - 1) / reader.getWidth() * writer.getWidth();
+		return (int) Math.max(1, Math.min(permits, (inputBytes + outputBytes + PERMIT_BYTES - 1) / PERMIT_BYTES));
+	}
+
+	/**
+	 * Counts the chunks of one large file so the file is counted, or failed, once.
+	 * A decrypted file is trimmed to its recorded length after its last chunk.
+	 */
+	private final class ChunkedFile
+	{
+		private final Path file;
+		private final Path output;
+		private final long length; // -1 keeps the whole blocks
+		private long remaining;
+		private boolean failed;
+
+		ChunkedFile(Path file, Path output, long chunks, long length)
+		{
+			this.file = file;
+			this.output = output;
+			this.remaining = chunks;
+			this.length = length;
+		}
+		synchronized void finished(Exception failure)
+		{
+			if(--remaining == 0 && failure == null && !failed && length >= 0)
+				failure = trim();
+			if(failure != null && !failed)
+			{
+				failed = true;
+				failures.add(file + ": " + failure.getMessage());
+			}
+			if(remaining == 0 && !failed)
+				files.increment();
+		}
+		private Exception trim()
+		{
+			try(FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE)) {
+				out.truncate(length);
+				return null;
+			} catch(IOException ex) {
+				return ex;
+			}
+		}
+	}
+
+	/** Summary of a batch run */
+	public static final class Report
+	{
+		private final long files;
+		private final List<String> failures;
+		private final long bytesRead;
+		private final long bytesWritten;
+		private final long elapsedNanos;
+
+		Report(long files, Queue<String> failures, long bytesRead, long bytesWritten, long elapsedNanos)
+		{
+			this.files = files;
+			this.failures = new ArrayList<>(failures);
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.elapsedNanos = elapsedNanos;
+		}
+		/**
+		 * @return files written completely (long)
+		 */
+		public long getFiles()
+		{
+			return files;
+		}
+		/**
+		 * @return one message per file that could not be written (List)
+		 */
+		public List<String> getFailures()
+		{
+			return failures;
+		}
+		public long getBytesRead()
+		{
+			return bytesRead;
+		}
+		public long getBytesWritten()
+		{
+			return bytesWritten;
+		}
+		public long getElapsedNanos()
+		{
+			return elapsedNanos;
+		}
+		/**
+		 * @return input megabytes (10^6 bytes) processed per second (double)
+		 */
+		public double getThroughput()
+		{
+			return elapsedNanos <= 0 ? 0.0 : bytesRead * 1e3 / elapsedNanos;
+		}
+		/**
+		 * @return files processed per second (double)
+		 */
+		public double getFileRate()
+		{
+			return elapsedNanos <= 0 ? 0.0 : files * 1e9 / elapsedNanos;
+		}
+		@Override
+		public String toString()
+		{
+			return String.format("%d files (%d failed), %d bytes read, %d bytes written in %.3f s: %.1f MB/s, %.0f files/s",
+					files, failures.size(), bytesRead, bytesWritten, elapsedNanos / 1e9, getThroughput(), getFileRate());
+		}
+	}
+}
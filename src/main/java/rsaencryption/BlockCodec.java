@@ -0,0 +1,315 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class converts between byte streams and fixed width RSA blocks.
+ * Blocks are unsigned big-endian integers of a fixed number of bytes.
+ * The codec owns a single reusable byte buffer, so converting a stream
+ * of any length only ever holds one batch of blocks in memory.
+ * @author Ryan N May
+ */
+public final class BlockCodec
+{
+	public static final int BATCH_BLOCKS = 8192;
+	private static final int LONG_BYTES = 8;
+	private final int width;
+	private final byte[] buffer;
+
+	/**
+	 * @param width number of bytes per block (int)
+	 */
+	public BlockCodec(int width)
+	{
+		this(width, BATCH_BLOCKS);
+	}
+	/**
+	 * @param width number of bytes per block (int)
+	 * @param batchBlocks number of blocks buffered per stream read or write (int)
+	 */
+	public BlockCodec(int width, int batchBlocks)
+	{
+		if(width <= 0 || batchBlocks <= 0)
+			throw new IllegalArgumentException("Block width and batch size must be positive");
+		this.width = width;
+		this.buffer = new byte[Math.multiplyExact(width, batchBlocks)];
+	}
+	/**
+	 * @return number of bytes per block (int)
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+	/**
+	 * @return maximum number of blocks moved per read or write (int)
+	 */
+	public int getBatchBlocks()
+	{
+		return buffer.length / width;
+	}
+	/**
+	 * Decodes one block starting at off. Bytes past off+len are treated as zero,
+	 * so a trailing partial block is zero filled on the right.
+	 * @param src
+	 * @param off
+	 * @param len number of bytes available from off (int)
+	 * @return block (BigInteger)
+	 */
+	public BigInteger decode(byte[] src, int off, int len)
+	{
+		int available = Math.min(width, len);
+		if(width <= LONG_BYTES)
+		{
+			long value = 0L;
+			for(int i = 0; i < available; i++)
+				value |= ((long)src[off + i] & 0xFF) << ((width - 1 - i) * 8);
+			if(value >= 0)
+				return BigInteger.valueOf(value);
+		}
+		byte[] magnitude = Arrays.copyOfRange(src, off, off + width);
+		if(available < width)
+			Arrays.fill(magnitude, available, width, (byte) 0);
+		return new BigInteger(1, magnitude);
+	}
+	/**
+	 * Encodes value as exactly width unsigned big-endian bytes at off.
+	 * @param value
+	 * @param dst
+	 * @param off
+	 * @throws IllegalArgumentException if value is negative or does not fit in width bytes
+	 */
+	public void encode(BigInteger value, byte[] dst, int off)
+	{
+		if(value.signum() < 0 || value.bitLength() > width * 8)
+			throw new IllegalArgumentException("Block value does not fit in " + width + " bytes");
+		if(value.bitLength() < LONG_BYTES * 8)
+		{
+			long v = value.longValue();
+			for(int i = width - 1; i >= 0; i--)
+			{
+				dst[off + i] = (byte) v;
+				v >>>= 8;
+			}
+			return;
+		}
+		byte[] b = value.toByteArray();
+		int skip = b.length > width ? b.length - width : 0; // leading sign byte
+		int fill = width - (b.length - skip);
+		Arrays.fill(dst, off, off + fill, (byte) 0);
+		System.arraycopy(b, skip, dst, off + fill, b.length - skip);
+	}
+	/**
+	 * As decode, reading from an absolute offset in a buffer without moving its position.
+	 * @param src
+	 * @param off
+	 * @param len number of bytes available from off (int)
+	 * @return block (BigInteger)
+	 */
+	public BigInteger decode(ByteBuffer src, int off, int len)
+	{
+		int available = Math.min(width, len);
+		if(width <= LONG_BYTES)
+		{
+			long value = 0L;
+			for(int i = 0; i < available; i++)
+				value |= ((long)src.get(off + i) & 0xFF) << ((width - 1 - i) * 8);
+			if(value >= 0)
+				return BigInteger.valueOf(value);
+		}
+		byte[] magnitude = new byte[width];
+		for(int i = 0; i < available; i++)
+			magnitude[i] = src.get(off + i);
+		return new BigInteger(1, magnitude);
+	}
+	/**
+	 * As encode, writing exactly width bytes at an absolute offset in a buffer without moving its position.
+	 * @param value
+	 * @param dst
+	 * @param off
+	 * @throws IllegalArgumentException if value is negative or does not fit in width bytes
+	 */
+	public void encode(BigInteger value, ByteBuffer dst, int off)
+	{
+		if(value.signum() < 0 || value.bitLength() > width * 8)
+			throw new IllegalArgumentException("Block value does not fit in " + width + " bytes");
+		if(value.bitLength() < LONG_BYTES * 8)
+		{
+			long v = value.longValue();
+			for(int i = width - 1; i >= 0; i--)
+			{
+				dst.put(off + i, (byte) v);
+				v >>>= 8;
+			}
+			return;
+		}
+		byte[] b = value.toByteArray();
+		int skip = b.length > width ? b.length - width : 0; // leading sign byte
+		int fill = width - (b.length - skip);
+		for(int i = 0; i < fill; i++)
+			dst.put(off + i, (byte) 0);
+		for(int i = skip; i < b.length; i++)
+			dst.put(off + fill + i - skip, b[i]);
+	}
+	/**
+	 * As decode for blocks of at most 8 bytes, returning the block as an unsigned long
+	 * @param src
+	 * @param off
+	 * @param len number of bytes available from off (int)
+	 * @return block (long)
+	 */
+	public long decodeLong(byte[] src, int off, int len)
+	{
+		checkLongWidth();
+		int available = Math.min(width, len);
+		long value = 0L;
+		for(int i = 0; i < available; i++)
+			value |= ((long)src[off + i] & 0xFF) << ((width - 1 - i) * 8);
+		return value;
+	}
+	/**
+	 * As encode for blocks of at most 8 bytes, taking the block as an unsigned long
+	 * @param value
+	 * @param dst
+	 * @param off
+	 * @throws IllegalArgumentException if value does not fit in width bytes
+	 */
+	public void encodeLong(long value, byte[] dst, int off)
+	{
+		checkLongWidth();
+		if(width < LONG_BYTES && value >>> (width * 8) != 0)
+			throw new IllegalArgumentException("Block value does not fit in " + width + " bytes");
+		for(int i = width - 1; i >= 0; i--)
+		{
+			dst[off + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+	/**
+	 * As decodeLong, reading from an absolute offset in a buffer without moving its position.
+	 * @param src
+	 * @param off
+	 * @param len number of bytes available from off (int)
+	 * @return block (long)
+	 */
+	public long decodeLong(ByteBuffer src, int off, int len)
+	{
+		checkLongWidth();
+		int available = Math.min(width, len);
+		long value = 0L;
+		for(int i = 0; i < available; i++)
+			value |= ((long)src.get(off + i) & 0xFF) << ((width - 1 - i) * 8);
+		return value;
+	}
+	/**
+	 * As encodeLong, writing at an absolute offset in a buffer without moving its position.
+	 * @param value
+	 * @param dst
+	 * @param off
+	 * @throws IllegalArgumentException if value does not fit in width bytes
+	 */
+	public void encodeLong(long value, ByteBuffer dst, int off)
+	{
+		checkLongWidth();
+		if(width < LONG_BYTES && value >>> (width * 8) != 0)
+			throw new IllegalArgumentException("Block value does not fit in " + width + " bytes");
+		for(int i = width - 1; i >= 0; i--)
+		{
+			dst.put(off + i, (byte) value);
+			value >>>= 8;
+		}
+	}
+	/**
+	 * Reads up to blocks.length blocks from the stream into blocks. Only the final
+	 * block of the stream may be partial, in which case it is zero filled.
+	 * @param in
+	 * @param blocks
+	 * @return number of blocks read, 0 at the end of the stream (int)
+	 * @throws IOException
+	 */
+	public int read(InputStream in, BigInteger[] blocks) throws IOException
+	{
+		int filled = fill(in, Math.min(blocks.length, getBatchBlocks()) * width);
+		int count = (filled + width - 1) / width;
+		for(int i = 0; i < count; i++)
+			blocks[i] = decode(buffer, i * width, filled - i * width);
+		return count;
+	}
+	/**
+	 * As read, decoding blocks of at most 8 bytes into unsigned longs
+	 * @param in
+	 * @param blocks
+	 * @return number of blocks read, 0 at the end of the stream (int)
+	 * @throws IOException
+	 */
+	public int read(InputStream in, long[] blocks) throws IOException
+	{
+		int filled = fill(in, Math.min(blocks.length, getBatchBlocks()) * width);
+		int count = (filled + width - 1) / width;
+		for(int i = 0; i < count; i++)
+			blocks[i] = decodeLong(buffer, i * width, filled - i * width);
+		return count;
+	}
+	/**
+	 * Writes the first count blocks to the stream, width bytes each.
+	 * @param blocks
+	 * @param count
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(BigInteger[] blocks, int count, OutputStream out) throws IOException
+	{
+		int batch = getBatchBlocks();
+		for(int start = 0; start < count; start += batch)
+		{
+			int end = Math.min(count, start + batch);
+			for(int i = start; i < end; i++)
+				encode(blocks[i], buffer, (i - start) * width);
+			out.write(buffer, 0, (end - start) * width);
+		}
+	}
+	/**
+	 * As write, encoding unsigned long blocks
+	 * @param blocks
+	 * @param count
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(long[] blocks, int count, OutputStream out) throws IOException
+	{
+		int batch = getBatchBlocks();
+		for(int start = 0; start < count; start += batch)
+		{
+			int end = Math.min(count, start + batch);
+			for(int i = start; i < end; i++)
+				encodeLong(blocks[i], buffer, (i - start) * width);
+			out.write(buffer, 0, (end - start) * width);
+		}
+	}
+	/**
+	 * Reads until wanted bytes are buffered or the stream ends
+	 * @return number of bytes buffered
+	 */
+	private int fill(InputStream in, int wanted) throws IOException
+	{
+		int filled = 0;
+		while(filled < wanted)
+		{
+			int n = in.read(buffer, filled, wanted - filled);
+			if(n < 0)
+				break;
+			filled += n;
+		}
+		return filled;
+	}
+	private void checkLongWidth()
+	{
+		if(width > LONG_BYTES)
+			throw new IllegalStateException(width + " byte blocks do not fit in a long");
+	}
+}
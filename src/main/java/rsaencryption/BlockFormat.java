@@ -0,0 +1,152 @@
+package rsaencryption;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * This class describes how plaintext is packed into RSA blocks.
+ * Every dataBytes of plaintext are prefixed with zero bytes to make one
+ * blockBytes wide block, so each padded block is smaller than the modulus.
+ * The legacy format packs 4 plaintext bytes into each 8 byte block; formats
+ * derived from a modulus pack as many bytes as the modulus allows.
+ * @author Ryan N May
+ */
+public final class BlockFormat
+{
+	/** The original 4 data bytes per 8 byte block format */
+	public static final BlockFormat LEGACY = new BlockFormat(4, 8);
+	private final int dataBytes;
+	private final int blockBytes;
+
+	/**
+	 * @param dataBytes plaintext bytes per block (int)
+	 * @param blockBytes cipher bytes per block (int)
+	 */
+	public BlockFormat(int dataBytes, int blockBytes)
+	{
+		if(dataBytes <= 0 || blockBytes <= dataBytes)
+			throw new IllegalArgumentException("Block must be wider than its " + dataBytes + " data bytes");
+		this.dataBytes = dataBytes;
+		this.blockBytes = blockBytes;
+	}
+	/**
+	 * Derives the widest format whose padded blocks are always below the modulus.
+	 * Cipher blocks are the byte length of the modulus and carry one byte less of data.
+	 * @param modulus (BigInteger)
+	 * @return format (BlockFormat)
+	 */
+	public static BlockFormat forModulus(BigInteger modulus)
+	{
+		int bits = modulus.bitLength();
+		if(bits <= 8)
+			throw new IllegalArgumentException("Modulus of " + bits + " bits cannot carry a data byte");
+		int blockBytes = (bits + 7) / 8;
+		return new BlockFormat(blockBytes - 1, blockBytes);
+	}
+	public int getDataBytes()
+	{
+		return dataBytes;
+	}
+	public int getBlockBytes()
+	{
+		return blockBytes;
+	}
+	/**
+	 * @param modulus (BigInteger)
+	 * @return true if every padded block of this format is below modulus (boolean)
+	 */
+	public boolean fits(BigInteger modulus)
+	{
+		return modulus.bitLength() > dataBytes * 8;
+	}
+	/**
+	 * @param length plaintext bytes (long)
+	 * @return number of blocks needed to carry length plaintext bytes (long)
+	 */
+	public long blockCount(long length)
+	{
+		return (length + dataBytes - 1) / dataBytes;
+	}
+	/**
+	 * @param length plaintext bytes (long)
+	 * @return number of cipher bytes produced for length plaintext bytes (long)
+	 */
+	public long encryptedLength(long length)
+	{
+		return blockCount(length) * blockBytes;
+	}
+	/**
+	 * Number of bytes pad produces for an input of the given length
+	 * @param length
+	 * @return
+	 */
+	public int paddedLength(int length)
+	{
+		return Math.toIntExact(length + blockCount(length) * (blockBytes - dataBytes));
+	}
+	/**
+	 * Number of bytes unpad produces for an input of the given length
+	 * @param length
+	 * @return
+	 */
+	public int unpaddedLength(int length)
+	{
+		int tail = length % blockBytes;
+		return (length / blockBytes) * dataBytes + Math.max(0, tail - (blockBytes - dataBytes));
+	}
+	/**
+	 * Pads len bytes of in, starting at off, into out. Each dataBytes chunk is
+	 * prefixed with zero bytes; a trailing partial chunk is not filled.
+	 * @param in
+	 * @param off
+	 * @param len
+	 * @param out must have at least paddedLength(len) bytes remaining
+	 * @throws java.nio.BufferOverflowException if out is too small
+	 */
+	public void pad(byte[] in, int off, int len, ByteBuffer out)
+	{
+		int padding = blockBytes - dataBytes;
+		for(int i = 0; i < len; i += dataBytes)
+		{
+			for(int j = 0; j < padding; j++)
+				out.put((byte) 0);
+			out.put(in, off + i, Math.min(dataBytes, len - i));
+		}
+	}
+	/**
+	 * Undoes the work of pad, dropping the leading padding of every block
+	 * @param in
+	 * @param off
+	 * @param len
+	 * @param out must have at least unpaddedLength(len) bytes remaining
+	 * @throws java.nio.BufferOverflowException if out is too small
+	 */
+	public void unpad(byte[] in, int off, int len, ByteBuffer out)
+	{
+		int padding = blockBytes - dataBytes;
+		for(int i = 0; i < len; i += blockBytes)
+		{
+			int data = Math.min(blockBytes, len - i) - padding;
+			if(data > 0)
+				out.put(in, off + i + padding, data);
+		}
+	}
+	@Override
+	public boolean equals(Object other)
+	{
+		if(!(other instanceof BlockFormat))
+			return false;
+		BlockFormat format = (BlockFormat) other;
+		return dataBytes == format.dataBytes && blockBytes == format.blockBytes;
+	}
+	@Override
+	public int hashCode()
+	{
+		return dataBytes * 31 + blockBytes;
+	}
+	@Override
+	public String toString()
+	{
+		return dataBytes + "/" + blockBytes;
+	}
+}
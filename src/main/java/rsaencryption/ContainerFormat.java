@@ -0,0 +1,255 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class describes the chunked container that encrypted files are written in.
+ * <pre>
+ * header: magic "RSAC" | version (1 byte) | flags (1 byte) | reserved (2 bytes)
+ *         key id (long) | data bytes (int) | block bytes (int) | chunk blocks (int) | original length (long)
+ * chunks: each chunk of chunk blocks * data bytes plaintext, encrypted as whole cipher blocks;
+ *         with FLAG_DEFLATE the plaintext of each chunk is zlib compressed before encryption
+ * index:  per chunk, offset (long) | stored length (int) | plain length (int)
+ * footer: index offset (long) | chunk count (int) | magic "RSAI"
+ * </pre>
+ * Every chunk but the last carries the same amount of plaintext, so the chunk
+ * holding any plaintext offset is found by division and read by seeking to its
+ * index entry. The original length trims the zero fill of the final block.
+ * Compressing chunk by chunk keeps that random access: a compressed chunk
+ * decompresses on its own to the plain length recorded in its index entry.
+ * @author Ryan N May
+ */
+public final class ContainerFormat
+{
+	public static final String EXTENSION = ".rsac";
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 36;
+	public static final int INDEX_ENTRY_BYTES = 16;
+	public static final int FOOTER_BYTES = 16;
+	/** Plaintext bytes per chunk used when no chunk size is given */
+	public static final int DEFAULT_CHUNK_BYTES = 64 << 10;
+	static final byte[] MAGIC = {'R', 'S', 'A', 'C'};
+	static final byte[] INDEX_MAGIC = {'R', 'S', 'A', 'I'};
+	/** Byte offset of the original length field, patched once the length is known */
+	static final int LENGTH_OFFSET = 28;
+	/** Chunk plaintext is zlib compressed before encryption */
+	public static final int FLAG_DEFLATE = 1;
+	private static final int KNOWN_FLAGS = FLAG_DEFLATE;
+	private final int flags;
+	private final long keyId;
+	private final BlockFormat blockFormat;
+	private final int chunkBlocks;
+	private final long originalLength;
+
+	/**
+	 * @param flags (int)
+	 * @param keyId id of the key pair the container is encrypted for (long)
+	 * @param blockFormat (BlockFormat)
+	 * @param chunkBlocks blocks per chunk (int)
+	 * @param originalLength plaintext bytes (long)
+	 */
+	public ContainerFormat(int flags, long keyId, BlockFormat blockFormat, int chunkBlocks, long originalLength)
+	{
+		if(chunkBlocks <= 0 || originalLength < 0)
+			throw new IllegalArgumentException("Chunk blocks must be positive and length not negative");
+		if((long) chunkBlocks * blockFormat.getBlockBytes() > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Chunks of " + chunkBlocks + " blocks are too large");
+		this.flags = flags;
+		this.keyId = keyId;
+		this.blockFormat = blockFormat;
+		this.chunkBlocks = chunkBlocks;
+		this.originalLength = originalLength;
+	}
+	/**
+	 * @param blockFormat (BlockFormat)
+	 * @return blocks per chunk carrying about DEFAULT_CHUNK_BYTES of plaintext (int)
+	 */
+	public static int defaultChunkBlocks(BlockFormat blockFormat)
+	{
+		return Math.max(1, DEFAULT_CHUNK_BYTES / blockFormat.getDataBytes());
+	}
+	public int getFlags()
+	{
+		return flags;
+	}
+	/**
+	 * @return true if chunk plaintext is compressed (boolean)
+	 */
+	public boolean isCompressed()
+	{
+		return (flags & FLAG_DEFLATE) != 0;
+	}
+	public long getKeyId()
+	{
+		return keyId;
+	}
+	public BlockFormat getBlockFormat()
+	{
+		return blockFormat;
+	}
+	public int getChunkBlocks()
+	{
+		return chunkBlocks;
+	}
+	public long getOriginalLength()
+	{
+		return originalLength;
+	}
+	/**
+	 * @return plaintext bytes carried by every chunk but the last (int)
+	 */
+	public int getChunkBytes()
+	{
+		return chunkBlocks * blockFormat.getDataBytes();
+	}
+	/**
+	 * @return number of chunks needed for the original length (long)
+	 */
+	public long chunkCount()
+	{
+		return (originalLength + getChunkBytes() - 1) / getChunkBytes();
+	}
+	/**
+	 * @return the header encoding (byte[])
+	 */
+	public byte[] encode()
+	{
+		ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES);
+		out.put(MAGIC).put((byte) VERSION).put((byte) flags).putShort((short) 0);
+		out.putLong(keyId);
+		out.putInt(blockFormat.getDataBytes()).putInt(blockFormat.getBlockBytes());
+		out.putInt(chunkBlocks).putLong(originalLength);
+		return out.array();
+	}
+	/**
+	 * Decodes a header starting at the buffer position
+	 * @param in
+	 * @return header (ContainerFormat)
+	 * @throws IOException if the buffer does not hold a valid header
+	 */
+	public static ContainerFormat decode(ByteBuffer in) throws IOException
+	{
+		try {
+			for(byte b : MAGIC)
+				if(in.get() != b)
+					throw new IOException("Not an encrypted container");
+			int version = in.get() & 0xFF;
+			if(version != VERSION)
+				throw new IOException("Unsupported container version " + version);
+			int flags = in.get() & 0xFF;
+			if((flags & ~KNOWN_FLAGS) != 0)
+				throw new IOException("Unsupported container flags " + flags);
+			in.getShort();
+			long keyId = in.getLong();
+			int dataBytes = in.getInt();
+			int blockBytes = in.getInt();
+			int chunkBlocks = in.getInt();
+			long originalLength = in.getLong();
+			return new ContainerFormat(flags, keyId, new BlockFormat(dataBytes, blockBytes), chunkBlocks, originalLength);
+		} catch(BufferUnderflowException ex) {
+			throw new IOException("Truncated container header", ex);
+		} catch(IllegalArgumentException ex) {
+			throw new IOException("Invalid container header: " + ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * @param buffer
+	 * @return true if the buffer starts with the container magic (boolean)
+	 */
+	public static boolean isContainer(byte[] buffer)
+	{
+		if(buffer.length < MAGIC.length)
+			return false;
+		for(int i = 0; i < MAGIC.length; i++)
+			if(buffer[i] != MAGIC[i])
+				return false;
+		return true;
+	}
+	/**
+	 * Compresses len bytes of in as one zlib stream
+	 * @param deflater reset before use, so one may serve every chunk of a writer
+	 * @return compressed bytes (byte[])
+	 */
+	static byte[] deflate(byte[] in, int len, Deflater deflater)
+	{
+		long start = Metrics.start();
+		deflater.reset();
+		deflater.setInput(in, 0, len);
+		deflater.finish();
+		byte[] out = new byte[len + (len >> 10) + 64];
+		int size = 0;
+		while(!deflater.finished())
+		{
+			if(size == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			size += deflater.deflate(out, size, out.length - size);
+		}
+		Metrics.record(Metrics.Stage.COMPRESS, start, len, 0L);
+		return Arrays.copyOf(out, size);
+	}
+	/**
+	 * Decompresses one zlib stream from in, which may be followed by zero fill
+	 * @param plainLength exact length the stream must decompress to (int)
+	 * @return decompressed bytes (byte[])
+	 * @throws IOException if the data is not a complete stream of plainLength bytes
+	 */
+	static byte[] inflate(byte[] in, int plainLength) throws IOException
+	{
+		long start = Metrics.start();
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in);
+			byte[] out = new byte[plainLength];
+			int size = 0;
+			while(size < plainLength && !inflater.finished() && !inflater.needsInput() && !inflater.needsDictionary())
+				size += inflater.inflate(out, size, plainLength - size);
+			// A stream longer than plainLength has output left over
+			if(size == plainLength && !inflater.finished() && inflater.inflate(new byte[1]) > 0)
+				size++;
+			if(size != plainLength || !inflater.finished())
+				throw new IOException("Compressed chunk does not hold " + plainLength + " bytes");
+			Metrics.record(Metrics.Stage.DECOMPRESS, start, plainLength, 0L);
+			return out;
+		} catch(DataFormatException ex) {
+			throw new IOException("Corrupt compressed chunk: " + ex.getMessage(), ex);
+		} finally {
+			inflater.end();
+		}
+	}
+	/**
+	 * Converts len bytes of in into whole blocks of the reader width, applies key
+	 * and encodes the results at the writer width into a new array.
+	 * @return transformed bytes, ceil(len / reader width) * writer width long (byte[])
+	 */
+	static byte[] transformChunk(byte[] in, int len, BlockCodec reader, BlockCodec writer, LoadedKey key, Executor executor, int parallelism)
+	{
+		int count = (len + reader.getWidth() - 1) / reader.getWidth();
+		if(RSA.usesLongPath(key, reader, writer))
+		{
+			long[] longs = new long[count];
+			for(int i = 0; i < count; i++)
+				longs[i] = reader.decodeLong(in, i * reader.getWidth(), len - i * reader.getWidth());
+			RSA.modPowBlocks(longs, longs, count, key, executor, parallelism);
+			byte[] out = new byte[count * writer.getWidth()];
+			for(int i = 0; i < count; i++)
+				writer.encodeLong(longs[i], out, i * writer.getWidth());
+			return out;
+		}
+		BigInteger[] blocks = new BigInteger[count];
+		for(int i = 0; i < count; i++)
+			blocks[i] = reader.decode(in, i * reader.getWidth(), len - i * reader.getWidth());
+		RSA.modPowBlocks(blocks, blocks, count, key, executor, parallelism);
+		byte[] out = new byte[count * writer.getWidth()];
+		for(int i = 0; i < count; i++)
+			writer.encode(blocks[i], out, i * writer.getWidth());
+		return out;
+	}
+}
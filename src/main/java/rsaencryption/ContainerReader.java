@@ -0,0 +1,253 @@
+package rsaencryption;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * This class decrypts an encrypted container (see ContainerFormat) with random access.
+ * Opening a container reads only its header and footer; every read then seeks to
+ * the index entries of just the chunks that overlap the requested range and
+ * decrypts those chunks, so opening costs the same however many chunks there are.
+ * Reads use positional channel reads, so one reader may be shared between threads.
+ * @author Ryan N May
+ */
+public final class ContainerReader implements Closeable
+{
+	private final FileChannel in;
+	private final LoadedKey key;
+	private final ContainerFormat format;
+	private final long indexOffset;
+	private final int chunkCount;
+	private final Executor executor;
+	private final int parallelism;
+
+	/**
+	 * Opens the container held by in
+	 * @param in
+	 * @param key decryption key of the pair the container was encrypted for (LoadedKey)
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException if in is not a complete container or was encrypted for another key
+	 */
+	public ContainerReader(FileChannel in, LoadedKey key, Executor executor, int parallelism) throws IOException
+	{
+		this.in = in;
+		this.key = key;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		long size = in.size();
+		if(size < ContainerFormat.HEADER_BYTES + ContainerFormat.FOOTER_BYTES)
+			throw new IOException("Truncated container of " + size + " bytes");
+		this.format = ContainerFormat.decode(readAt(0L, ContainerFormat.HEADER_BYTES));
+		if(format.getKeyId() != key.getKeyId())
+			throw new IOException("Container was encrypted for a different key");
+		if(!format.getBlockFormat().fits(key.getModulus()))
+			throw new IOException("Container block format " + format.getBlockFormat() + " does not fit the key");
+		ByteBuffer footer = readAt(size - ContainerFormat.FOOTER_BYTES, ContainerFormat.FOOTER_BYTES);
+		long indexOffset = footer.getLong();
+		int count = footer.getInt();
+		for(byte b : ContainerFormat.INDEX_MAGIC)
+			if(footer.get() != b)
+				throw new IOException("Container has no chunk index; it may be incomplete");
+		if(count < 0 || count != format.chunkCount()
+				|| indexOffset + (long) count * ContainerFormat.INDEX_ENTRY_BYTES + ContainerFormat.FOOTER_BYTES != size)
+			throw new IOException("Container chunk index is inconsistent");
+		this.chunkCount = count;
+		this.indexOffset = indexOffset;
+	}
+	/**
+	 * Decrypts a whole container file
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptFile(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		decryptRange(inputPath, outputPath, keyFilePath, 0L, Long.MAX_VALUE, executor, parallelism);
+	}
+	/**
+	 * Decrypts length plaintext bytes starting at offset of a container file,
+	 * stopping early at the end of the plaintext
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param offset (long)
+	 * @param length (long)
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptRange(String inputPath, String outputPath, String keyFilePath, long offset, long length, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		try(FileChannel channel = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+				ContainerReader reader = new ContainerReader(channel, key, executor, parallelism);
+				OutputStream out = Files.newOutputStream(Paths.get(outputPath))) {
+			reader.read(offset, length, out);
+		}
+	}
+	/**
+	 * Decrypts a single chunk of a container file
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param chunk index of the chunk (int)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptChunk(String inputPath, String outputPath, String keyFilePath, int chunk) throws IOException, ClassNotFoundException
+	{
+		try(ContainerReader reader = open(Paths.get(inputPath), RSA.getKeyCache().get(keyFilePath))) {
+			Files.write(Paths.get(outputPath), reader.readChunk(chunk));
+		}
+	}
+	/**
+	 * Opens a container file for random access with a single thread
+	 * @param path
+	 * @param key
+	 * @return reader that closes the file when closed (ContainerReader)
+	 * @throws IOException
+	 */
+	public static ContainerReader open(Path path, LoadedKey key) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new ContainerReader(channel, key, null, 1);
+		} catch(IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+	public ContainerFormat getFormat()
+	{
+		return format;
+	}
+	/**
+	 * @return plaintext bytes in the container (long)
+	 */
+	public long getLength()
+	{
+		return format.getOriginalLength();
+	}
+	public int getChunkCount()
+	{
+		return chunkCount;
+	}
+	/**
+	 * Decrypts a single chunk
+	 * @param chunk index of the chunk (int)
+	 * @return plaintext of the chunk (byte[])
+	 * @throws IOException
+	 */
+	public byte[] readChunk(int chunk) throws IOException
+	{
+		if(chunk < 0 || chunk >= chunkCount)
+			throw new IndexOutOfBoundsException("Chunk " + chunk + " of " + chunkCount);
+		ByteBuffer entry = readAt(indexOffset + (long) chunk * ContainerFormat.INDEX_ENTRY_BYTES, ContainerFormat.INDEX_ENTRY_BYTES);
+		long offset = entry.getLong();
+		int stored = entry.getInt();
+		int plain = entry.getInt();
+		BlockFormat blockFormat = format.getBlockFormat();
+		boolean compressed = format.isCompressed();
+		if(plain <= 0 || plain > format.getChunkBytes() || stored <= 0 || stored % blockFormat.getBlockBytes() != 0
+				|| !compressed && stored != blockFormat.encryptedLength(plain))
+			throw new IOException("Chunk " + chunk + " has an invalid index entry");
+		byte[] encrypted = new byte[stored];
+		readFully(ByteBuffer.wrap(encrypted), offset);
+		byte[] decrypted = ContainerFormat.transformChunk(encrypted, stored,
+				new BlockCodec(blockFormat.getBlockBytes(), 1), new BlockCodec(blockFormat.getDataBytes(), 1), key, executor, parallelism);
+		if(compressed)
+			return ContainerFormat.inflate(decrypted, plain);
+		return decrypted.length == plain ? decrypted : Arrays.copyOf(decrypted, plain);
+	}
+	/**
+	 * Decrypts up to length plaintext bytes starting at offset
+	 * @param offset (long)
+	 * @param length (int)
+	 * @return plaintext, shorter than length if the range passes the end (byte[])
+	 * @throws IOException
+	 */
+	public byte[] read(long offset, int length) throws IOException
+	{
+		checkOffset(offset);
+		int available = (int) Math.min(length, getLength() - offset);
+		ByteBuffer out = ByteBuffer.allocate(Math.max(0, available));
+		long position = offset;
+		while(out.hasRemaining())
+		{
+			int chunk = (int) (position / format.getChunkBytes());
+			int skip = (int) (position % format.getChunkBytes());
+			byte[] plain = readChunk(chunk);
+			int n = Math.min(plain.length - skip, out.remaining());
+			out.put(plain, skip, n);
+			position += n;
+		}
+		return out.array();
+	}
+	/**
+	 * Decrypts up to length plaintext bytes starting at offset into out, one chunk at a time
+	 * @param offset (long)
+	 * @param length (long)
+	 * @param out
+	 * @throws IOException
+	 */
+	public void read(long offset, long length, OutputStream out) throws IOException
+	{
+		checkOffset(offset);
+		long end = offset + Math.min(length, getLength() - offset);
+		for(long position = offset; position < end;)
+		{
+			int chunk = (int) (position / format.getChunkBytes());
+			int skip = (int) (position % format.getChunkBytes());
+			byte[] plain = readChunk(chunk);
+			int n = (int) Math.min(plain.length - skip, end - position);
+			out.write(plain, skip, n);
+			position += n;
+		}
+		out.flush();
+	}
+	/**
+	 * Closes the underlying channel
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+	private void checkOffset(long offset)
+	{
+		if(offset < 0 || offset > getLength())
+			throw new IndexOutOfBoundsException("Offset " + offset + " outside 0.." + getLength());
+	}
+	private ByteBuffer readAt(long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(buffer, position);
+		buffer.flip();
+		return buffer;
+	}
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			int n = in.read(buffer, position);
+			if(n < 0)
+				throw new IOException("Container truncated at " + position);
+			position += n;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package rsaencryption;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+/**
+ * This class writes plaintext into an encrypted container (see ContainerFormat).
+ * Plaintext is gathered into one chunk at a time, which is encrypted and appended
+ * as soon as it is full. Closing the writer encrypts the final chunk, appends the
+ * chunk index and footer and records the original length in the header.
+ * With ContainerFormat.FLAG_DEFLATE each chunk is compressed before it is
+ * encrypted, so compressible input costs fewer blocks and fewer bytes written.
+ * @author Ryan N May
+ */
+public final class ContainerWriter implements Closeable
+{
+	private final FileChannel out;
+	private final LoadedKey key;
+	private final ContainerFormat format;
+	private final BlockCodec dataCodec;
+	private final BlockCodec blockCodec;
+	private final Executor executor;
+	private final int parallelism;
+	private final Deflater deflater; // null unless compressing
+	private final byte[] chunk;
+	private int filled;
+	private long position;
+	private long length;
+	private ByteBuffer index;
+	private int chunkCount;
+	private boolean closed;
+
+	/**
+	 * Starts a container at the beginning of out, which is truncated
+	 * @param out
+	 * @param key encryption key (LoadedKey)
+	 * @param chunkBlocks blocks per chunk (int)
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public ContainerWriter(FileChannel out, LoadedKey key, int chunkBlocks, Executor executor, int parallelism) throws IOException
+	{
+		this(out, key, chunkBlocks, 0, executor, parallelism);
+	}
+	/**
+	 * Starts a container at the beginning of out, which is truncated
+	 * @param out
+	 * @param key encryption key (LoadedKey)
+	 * @param chunkBlocks blocks per chunk (int)
+	 * @param flags ContainerFormat.FLAG_DEFLATE to compress chunks, otherwise 0 (int)
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public ContainerWriter(FileChannel out, LoadedKey key, int chunkBlocks, int flags, Executor executor, int parallelism) throws IOException
+	{
+		BlockFormat blockFormat = key.getBlockFormat();
+		this.out = out;
+		this.key = key;
+		this.format = new ContainerFormat(flags, key.getKeyId(), blockFormat, chunkBlocks, 0L);
+		this.deflater = format.isCompressed() ? new Deflater(Deflater.DEFAULT_COMPRESSION) : null;
+		this.dataCodec = new BlockCodec(blockFormat.getDataBytes(), 1);
+		this.blockCodec = new BlockCodec(blockFormat.getBlockBytes(), 1);
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.chunk = new byte[format.getChunkBytes()];
+		this.index = ByteBuffer.allocate(64 * ContainerFormat.INDEX_ENTRY_BYTES);
+		out.truncate(0);
+		writeFully(ByteBuffer.wrap(format.encode()), 0L);
+		position = ContainerFormat.HEADER_BYTES;
+	}
+	/**
+	 * Encrypts an input file into a container file
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param chunkBlocks blocks per chunk, or 0 for the default (int)
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, String outputPath, String keyFilePath, int chunkBlocks, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		encryptFile(inputPath, outputPath, keyFilePath, chunkBlocks, 0, executor, parallelism);
+	}
+	/**
+	 * Encrypts an input file into a container file with the given header flags
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param chunkBlocks blocks per chunk, or 0 for the default (int)
+	 * @param flags ContainerFormat.FLAG_DEFLATE to compress chunks, otherwise 0 (int)
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, String outputPath, String keyFilePath, int chunkBlocks, int flags, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		if(chunkBlocks <= 0)
+			chunkBlocks = ContainerFormat.defaultChunkBlocks(key.getBlockFormat());
+		try(InputStream in = Files.newInputStream(Paths.get(inputPath));
+				FileChannel channel = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				ContainerWriter writer = new ContainerWriter(channel, key, chunkBlocks, flags, executor, parallelism)) {
+			writer.write(in);
+		}
+	}
+	/**
+	 * Encrypts an input file into a container file with the default chunk size
+	 * @param input
+	 * @param output
+	 * @param key
+	 * @throws IOException
+	 */
+	public static void encryptFile(Path input, Path output, LoadedKey key) throws IOException
+	{
+		try(InputStream in = Files.newInputStream(input);
+				FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				ContainerWriter writer = new ContainerWriter(channel, key, ContainerFormat.defaultChunkBlocks(key.getBlockFormat()), null, 1)) {
+			writer.write(in);
+		}
+	}
+	/**
+	 * Appends len bytes of b, encrypting every chunk that fills up
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if(closed)
+			throw new IOException("Container writer is closed");
+		while(len > 0)
+		{
+			int n = Math.min(len, chunk.length - filled);
+			System.arraycopy(b, off, chunk, filled, n);
+			filled += n;
+			off += n;
+			len -= n;
+			if(filled == chunk.length)
+				flushChunk();
+		}
+	}
+	/**
+	 * Appends everything remaining in the stream
+	 * @param in
+	 * @throws IOException
+	 */
+	public void write(InputStream in) throws IOException
+	{
+		byte[] buffer = new byte[chunk.length];
+		int n;
+		while((n = in.read(buffer)) > 0)
+			write(buffer, 0, n);
+	}
+	/**
+	 * @return plaintext bytes written so far (long)
+	 */
+	public long getLength()
+	{
+		return length + filled;
+	}
+	/**
+	 * Encrypts the final chunk, then writes the index, footer and original length.
+	 * The channel is left open.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		try {
+			if(filled > 0)
+				flushChunk();
+		} finally {
+			if(deflater != null)
+				deflater.end();
+		}
+		index.flip();
+		long indexOffset = position;
+		writeFully(index, position);
+		position += index.limit();
+		ByteBuffer footer = ByteBuffer.allocate(ContainerFormat.FOOTER_BYTES);
+		footer.putLong(indexOffset).putInt(chunkCount).put(ContainerFormat.INDEX_MAGIC);
+		footer.flip();
+		writeFully(footer, position);
+		ByteBuffer originalLength = ByteBuffer.allocate(8);
+		originalLength.putLong(length).flip();
+		writeFully(originalLength, ContainerFormat.LENGTH_OFFSET);
+	}
+	private void flushChunk() throws IOException
+	{
+		byte[] plain = chunk;
+		int plainLength = filled;
+		if(deflater != null)
+		{
+			plain = ContainerFormat.deflate(chunk, filled, deflater);
+			plainLength = plain.length;
+		}
+		byte[] encrypted = ContainerFormat.transformChunk(plain, plainLength, dataCodec, blockCodec, key, executor, parallelism);
+		writeFully(ByteBuffer.wrap(encrypted), position);
+		if(index.remaining() < ContainerFormat.INDEX_ENTRY_BYTES)
+		{
+			ByteBuffer larger = ByteBuffer.allocate(index.capacity() * 2);
+			index.flip();
+			index = larger.put(index);
+		}
+		index.putLong(position).putInt(encrypted.length).putInt(filled);
+		chunkCount++;
+		position += encrypted.length;
+		length += filled;
+		filled = 0;
+	}
+	private void writeFully(ByteBuffer buffer, long at) throws IOException
+	{
+		while(buffer.hasRemaining())
+			at += out.write(buffer, at);
+	}
+}
@@ -0,0 +1,240 @@
+package rsaencryption;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class encrypts bulk data with a random AES session key and wraps only
+ * the session key with RSA, so throughput is bounded by AES rather than modPow.
+ * <pre>
+ * header: magic "RSAH" | version (1 byte) | flags (1 byte) | reserved (2 bytes) | key id (long)
+ *         data bytes (int) | block bytes (int) | chunk bytes (int) | nonce prefix (4 bytes)
+ *         wrapped key length (int) | session key encrypted with RSA in the key's block format
+ * chunks: final flag (1 byte) | length (int) | AES-GCM ciphertext and tag
+ * </pre>
+ * Each chunk is sealed separately with the nonce prefix and the chunk number as
+ * its nonce, and with the header and its final flag as associated data, so
+ * reordered, altered or truncated chunks fail authentication.
+ * @author Ryan N May
+ */
+public final class HybridCipher
+{
+	public static final String EXTENSION = ".rsah";
+	public static final int VERSION = 1;
+	/** Plaintext bytes sealed per AES-GCM chunk */
+	public static final int CHUNK_BYTES = 1 << 20;
+	/** Largest chunk accepted when decrypting, bounding the buffers a header can ask for */
+	private static final int MAX_CHUNK_BYTES = 64 << 20;
+	private static final byte[] MAGIC = {'R', 'S', 'A', 'H'};
+	/** Header bytes before the wrapped session key */
+	private static final int FIXED_HEADER_BYTES = 36;
+	private static final int SESSION_KEY_BYTES = 32;
+	private static final int NONCE_PREFIX_BYTES = 4;
+	private static final int TAG_BITS = 128;
+	private static final int TAG_BYTES = TAG_BITS / 8;
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private HybridCipher() {}
+
+	/**
+	 * Encrypts a file in hybrid mode
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath public key
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, String outputPath, String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		try(InputStream in = new FileInputStream(inputPath);
+				OutputStream out = new FileOutputStream(outputPath)) {
+			encrypt(in, out, key);
+		}
+	}
+	/**
+	 * Decrypts a file written by encryptFile
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath private key
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptFile(String inputPath, String outputPath, String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		try(InputStream in = new FileInputStream(inputPath);
+				OutputStream out = new FileOutputStream(outputPath)) {
+			decrypt(in, out, key);
+		}
+	}
+	/**
+	 * Encrypts everything remaining in the stream under a fresh session key
+	 * @param in
+	 * @param out
+	 * @param key public key (LoadedKey)
+	 * @throws IOException
+	 */
+	public static void encrypt(InputStream in, OutputStream out, LoadedKey key) throws IOException
+	{
+		BlockFormat format = key.getBlockFormat();
+		byte[] sessionKey = new byte[SESSION_KEY_BYTES];
+		byte[] noncePrefix = new byte[NONCE_PREFIX_BYTES];
+		RANDOM.nextBytes(sessionKey);
+		RANDOM.nextBytes(noncePrefix);
+		byte[] wrapped = ContainerFormat.transformChunk(sessionKey, sessionKey.length,
+				new BlockCodec(format.getDataBytes(), 1), new BlockCodec(format.getBlockBytes(), 1), key, null, 1);
+		byte[] header = header(key.getKeyId(), format, CHUNK_BYTES, noncePrefix, wrapped);
+		out.write(header);
+		Cipher cipher = newCipher();
+		SecretKeySpec aesKey = new SecretKeySpec(sessionKey, "AES");
+		Arrays.fill(sessionKey, (byte) 0);
+		byte[] plain = new byte[CHUNK_BYTES];
+		byte[] sealed = new byte[CHUNK_BYTES + TAG_BYTES];
+		ByteBuffer prefix = ByteBuffer.allocate(5);
+		long chunk = 0;
+		boolean last;
+		do {
+			int n = readFully(in, plain);
+			last = n < plain.length;
+			try {
+				cipher.init(Cipher.ENCRYPT_MODE, aesKey, new GCMParameterSpec(TAG_BITS, nonce(noncePrefix, chunk++)));
+				cipher.updateAAD(header);
+				cipher.updateAAD(new byte[] {(byte) (last ? 1 : 0)});
+				int length = cipher.doFinal(plain, 0, n, sealed, 0);
+				prefix.clear();
+				prefix.put((byte) (last ? 1 : 0)).putInt(length);
+				out.write(prefix.array());
+				out.write(sealed, 0, length);
+			} catch(GeneralSecurityException ex) {
+				throw new IllegalStateException("AES-GCM encryption failed", ex);
+			}
+		}while(!last);
+		out.flush();
+	}
+	/**
+	 * Decrypts a stream written by encrypt
+	 * @param in
+	 * @param out
+	 * @param key private key of the pair the stream was encrypted for (LoadedKey)
+	 * @throws IOException if the stream is malformed, truncated, altered or for another key
+	 */
+	public static void decrypt(InputStream in, OutputStream out, LoadedKey key) throws IOException
+	{
+		DataInputStream data = new DataInputStream(in);
+		ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_BYTES);
+		try {
+			data.readFully(fixed.array());
+		} catch(EOFException ex) {
+			throw new IOException("Truncated hybrid header", ex);
+		}
+		for(byte b : MAGIC)
+			if(fixed.get() != b)
+				throw new IOException("Not a hybrid encrypted stream");
+		int version = fixed.get() & 0xFF;
+		if(version != VERSION)
+			throw new IOException("Unsupported hybrid version " + version);
+		fixed.get();
+		fixed.getShort();
+		long keyId = fixed.getLong();
+		if(keyId != key.getKeyId())
+			throw new IOException("Stream was encrypted for a different key");
+		BlockFormat format;
+		try {
+			format = new BlockFormat(fixed.getInt(), fixed.getInt());
+		} catch(IllegalArgumentException ex) {
+			throw new IOException("Invalid hybrid header: " + ex.getMessage(), ex);
+		}
+		int chunkBytes = fixed.getInt();
+		byte[] noncePrefix = new byte[NONCE_PREFIX_BYTES];
+		fixed.get(noncePrefix);
+		int wrappedLength = fixed.getInt();
+		if(chunkBytes <= 0 || chunkBytes > MAX_CHUNK_BYTES
+				|| wrappedLength != format.encryptedLength(SESSION_KEY_BYTES) || !format.fits(key.getModulus()))
+			throw new IOException("Invalid hybrid header");
+		byte[] wrapped = new byte[wrappedLength];
+		data.readFully(wrapped);
+		byte[] header = header(keyId, format, chunkBytes, noncePrefix, wrapped);
+		byte[] sessionKey = ContainerFormat.transformChunk(wrapped, wrapped.length,
+				new BlockCodec(format.getBlockBytes(), 1), new BlockCodec(format.getDataBytes(), 1), key, null, 1);
+		SecretKeySpec aesKey = new SecretKeySpec(sessionKey, 0, SESSION_KEY_BYTES, "AES");
+		Arrays.fill(sessionKey, (byte) 0);
+		Cipher cipher = newCipher();
+		byte[] sealed = new byte[chunkBytes + TAG_BYTES];
+		byte[] plain = new byte[chunkBytes];
+		long chunk = 0;
+		boolean last = false;
+		while(!last)
+		{
+			int flag;
+			int length;
+			try {
+				flag = data.readUnsignedByte();
+				length = data.readInt();
+			} catch(EOFException ex) {
+				throw new IOException("Hybrid stream truncated after chunk " + chunk, ex);
+			}
+			if(flag > 1 || length < TAG_BYTES || length > sealed.length)
+				throw new IOException("Invalid hybrid chunk " + chunk);
+			last = flag == 1;
+			data.readFully(sealed, 0, length);
+			try {
+				cipher.init(Cipher.DECRYPT_MODE, aesKey, new GCMParameterSpec(TAG_BITS, nonce(noncePrefix, chunk++)));
+				cipher.updateAAD(header);
+				cipher.updateAAD(new byte[] {(byte) flag});
+				int n = cipher.doFinal(sealed, 0, length, plain, 0);
+				out.write(plain, 0, n);
+			} catch(AEADBadTagException ex) {
+				throw new IOException("Hybrid chunk " + (chunk - 1) + " failed authentication", ex);
+			} catch(GeneralSecurityException ex) {
+				throw new IllegalStateException("AES-GCM decryption failed", ex);
+			}
+		}
+		if(data.read() >= 0)
+			throw new IOException("Unexpected data after the final hybrid chunk");
+		out.flush();
+	}
+	private static byte[] header(long keyId, BlockFormat format, int chunkBytes, byte[] noncePrefix, byte[] wrapped)
+	{
+		ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + wrapped.length);
+		header.put(MAGIC).put((byte) VERSION).put((byte) 0).putShort((short) 0).putLong(keyId);
+		header.putInt(format.getDataBytes()).putInt(format.getBlockBytes()).putInt(chunkBytes);
+		header.put(noncePrefix).putInt(wrapped.length).put(wrapped);
+		return header.array();
+	}
+	private static byte[] nonce(byte[] prefix, long chunk)
+	{
+		return ByteBuffer.allocate(NONCE_PREFIX_BYTES + 8).put(prefix).putLong(chunk).array();
+	}
+	private static Cipher newCipher()
+	{
+		try {
+			return Cipher.getInstance(TRANSFORMATION);
+		} catch(GeneralSecurityException ex) {
+			throw new IllegalStateException(TRANSFORMATION + " is not available", ex);
+		}
+	}
+	private static int readFully(InputStream in, byte[] buffer) throws IOException
+	{
+		int filled = 0;
+		int n;
+		while(filled < buffer.length && (n = in.read(buffer, filled, buffer.length - filled)) >= 0)
+			filled += n;
+		return filled;
+	}
+}
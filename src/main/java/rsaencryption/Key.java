@@ -3,18 +3,45 @@ package rsaencryption;
 import java.math.BigInteger;
 
 /**
- * This final static class stores key data generated by KeySet
+ * This final static class stores key data generated by KeySet.
+ * Private keys also carry the prime factors of n and the Chinese Remainder
+ * Theorem exponents; these are null for public keys and for keys written
+ * before they were introduced.
  * @author Ryan N May
  * @since 2023-04-24
  */
 public final class Key implements java.io.Serializable 
 {
+	private static final long serialVersionUID = -2681368286756321432L;
 	public BigInteger element1;
 	public BigInteger element2;
+	public BigInteger p;
+	public BigInteger q;
+	public BigInteger dP;
+	public BigInteger dQ;
+	public BigInteger qInv;
 	
 	Key(BigInteger _element1, BigInteger _element2)
 	{
 		this.element1 = _element1;
 		this.element2 = _element2;
 	}
+	
+	Key(BigInteger _element1, BigInteger _element2, BigInteger _p, BigInteger _q, BigInteger _dP, BigInteger _dQ, BigInteger _qInv)
+	{
+		this(_element1, _element2);
+		this.p = _p;
+		this.q = _q;
+		this.dP = _dP;
+		this.dQ = _dQ;
+		this.qInv = _qInv;
+	}
+	
+	/**
+	 * @return true if this key carries Chinese Remainder Theorem parameters (boolean)
+	 */
+	public boolean hasCRT()
+	{
+		return p != null && q != null && dP != null && dQ != null && qInv != null;
+	}
 }
@@ -0,0 +1,129 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, least recently used cache of loaded keys keyed by file path.
+ * A cached key is reloaded when the modification time of its file changes.
+ * The modification time is only checked once per revalidation interval, so
+ * repeated lookups of a hot key do not touch the file system.
+ * @author Ryan N May
+ */
+public final class KeyCache
+{
+	public static final long DEFAULT_REVALIDATE_MILLIS = 1000L;
+	private final int capacity;
+	private final long revalidateNanos;
+	private final LinkedHashMap<String, Cached> entries;
+
+	/**
+	 * @param capacity maximum number of cached keys (int)
+	 */
+	public KeyCache(int capacity)
+	{
+		this(capacity, DEFAULT_REVALIDATE_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * @param capacity maximum number of cached keys (int)
+	 * @param revalidate time between modification time checks, 0 to check on every lookup (long)
+	 * @param unit
+	 */
+	public KeyCache(int capacity, long revalidate, TimeUnit unit)
+	{
+		if(capacity <= 0 || revalidate < 0)
+			throw new IllegalArgumentException("Capacity must be positive and revalidation interval non-negative");
+		this.capacity = capacity;
+		this.revalidateNanos = unit.toNanos(revalidate);
+		this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest)
+			{
+				return size() > KeyCache.this.capacity;
+			}
+		};
+	}
+	/**
+	 * Returns the key stored at keyFilePath, loading it on a miss or when the file has changed.
+	 * @param keyFilePath
+	 * @return key (LoadedKey)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public LoadedKey get(String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		Path path = Paths.get(keyFilePath).toAbsolutePath().normalize();
+		String id = path.toString();
+		long now = System.nanoTime();
+		Cached entry;
+		synchronized(entries) {
+			entry = entries.get(id);
+		}
+		if(entry != null && now - entry.checkedAt < revalidateNanos)
+			return entry.key;
+		long modified = Files.getLastModifiedTime(path).toMillis();
+		if(entry != null && entry.modified == modified)
+		{
+			entry.checkedAt = now;
+			return entry.key;
+		}
+		LoadedKey key = RSA.loadKey(id);
+		synchronized(entries) {
+			entries.put(id, new Cached(key, modified, now));
+		}
+		return key;
+	}
+	/**
+	 * Drops the cached key for keyFilePath, if any
+	 * @param keyFilePath
+	 */
+	public void invalidate(String keyFilePath)
+	{
+		String id = Paths.get(keyFilePath).toAbsolutePath().normalize().toString();
+		synchronized(entries) {
+			entries.remove(id);
+		}
+	}
+	/**
+	 * Drops every cached key
+	 */
+	public void clear()
+	{
+		synchronized(entries) {
+			entries.clear();
+		}
+	}
+	/**
+	 * @return number of cached keys (int)
+	 */
+	public int size()
+	{
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	private static final class Cached
+	{
+		final LoadedKey key;
+		final long modified;
+		volatile long checkedAt;
+
+		Cached(LoadedKey key, long modified, long checkedAt)
+		{
+			this.key = key;
+			this.modified = modified;
+			this.checkedAt = checkedAt;
+		}
+	}
+}
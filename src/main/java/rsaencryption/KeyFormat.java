@@ -0,0 +1,164 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads and writes keys in a compact, versioned binary format.
+ * <pre>
+ * magic "RSAK" | version (1 byte) | flags (1 byte) | reserved (2 bytes) | body length (int)
+ * body: count of components, then each component as length (int) + big-endian two's complement bytes
+ *       exponent, modulus [, p, q, dP, dQ, qInv when FLAG_CRT is set]
+ * </pre>
+ * A key file is loaded with a single read into a byte buffer; no classes are
+ * resolved, so unlike the serialised .ser format it is safe to load untrusted files.
+ * @author Ryan N May
+ */
+public final class KeyFormat
+{
+	public static final String EXTENSION = ".rsk";
+	public static final int VERSION = 1;
+	public static final int FLAG_CRT = 1;
+	private static final byte[] MAGIC = {'R', 'S', 'A', 'K'};
+	private static final int HEADER_BYTES = 12;
+	/** Upper bound on a single component, far above any supported modulus */
+	private static final int MAX_COMPONENT_BYTES = 1 << 16;
+
+	private KeyFormat() {}
+
+	/**
+	 * @param key
+	 * @return the binary encoding of key (byte[])
+	 */
+	public static byte[] encode(Key key)
+	{
+		BigInteger[] components = key.hasCRT()
+				? new BigInteger[] {key.element1, key.element2, key.p, key.q, key.dP, key.dQ, key.qInv}
+				: new BigInteger[] {key.element1, key.element2};
+		byte[][] bytes = new byte[components.length][];
+		int bodyLength = 4;
+		for(int i = 0; i < components.length; i++)
+		{
+			bytes[i] = components[i].toByteArray();
+			bodyLength += 4 + bytes[i].length;
+		}
+		ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+		out.put(MAGIC).put((byte) VERSION).put((byte) (key.hasCRT() ? FLAG_CRT : 0)).putShort((short) 0);
+		out.putInt(bodyLength);
+		out.putInt(components.length);
+		for(byte[] b : bytes)
+			out.putInt(b.length).put(b);
+		return out.array();
+	}
+	/**
+	 * Decodes one key starting at the buffer position, leaving the position after the key
+	 * @param in
+	 * @return key (Key)
+	 * @throws IOException if the buffer does not hold a valid key
+	 */
+	public static Key decode(ByteBuffer in) throws IOException
+	{
+		try {
+			for(byte b : MAGIC)
+				if(in.get() != b)
+					throw new IOException("Not a binary key");
+			int version = in.get() & 0xFF;
+			if(version != VERSION)
+				throw new IOException("Unsupported key format version " + version);
+			int flags = in.get() & 0xFF;
+			in.getShort();
+			int bodyLength = in.getInt();
+			if(bodyLength < 4 || bodyLength > in.remaining())
+				throw new IOException("Truncated key: body of " + bodyLength + " bytes");
+			int count = in.getInt();
+			int expected = (flags & FLAG_CRT) != 0 ? 7 : 2;
+			if(count != expected)
+				throw new IOException("Expected " + expected + " key components but found " + count);
+			BigInteger[] components = new BigInteger[count];
+			for(int i = 0; i < count; i++)
+			{
+				int length = in.getInt();
+				if(length <= 0 || length > MAX_COMPONENT_BYTES || length > in.remaining())
+					throw new IOException("Invalid key component length " + length);
+				byte[] b = new byte[length];
+				in.get(b);
+				components[i] = new BigInteger(b);
+			}
+			if(count == 7)
+				return new Key(components[0], components[1], components[2], components[3], components[4], components[5], components[6]);
+			return new Key(components[0], components[1]);
+		} catch(BufferUnderflowException ex) {
+			throw new IOException("Truncated key", ex);
+		}
+	}
+	/**
+	 * @param buffer
+	 * @return true if the buffer starts with the binary key magic (boolean)
+	 */
+	public static boolean isBinaryKey(byte[] buffer)
+	{
+		if(buffer.length < MAGIC.length)
+			return false;
+		for(int i = 0; i < MAGIC.length; i++)
+			if(buffer[i] != MAGIC[i])
+				return false;
+		return true;
+	}
+	/**
+	 * Reads a binary key file with a single read into a heap buffer
+	 * @param keyFilePath
+	 * @return key (Key)
+	 * @throws IOException
+	 */
+	public static Key read(String keyFilePath) throws IOException
+	{
+		return decode(ByteBuffer.wrap(readFully(Paths.get(keyFilePath))));
+	}
+	/**
+	 * Writes key to keyFilePath in the binary format
+	 * @param key
+	 * @param keyFilePath
+	 * @throws IOException
+	 */
+	public static void write(Key key, String keyFilePath) throws IOException
+	{
+		Files.write(Paths.get(keyFilePath), encode(key));
+	}
+	/**
+	 * Converts a serialised .ser key file into the binary format
+	 * @param serPath
+	 * @param binaryPath
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void convert(String serPath, String binaryPath) throws IOException, ClassNotFoundException
+	{
+		write(RSA.readKeyObject(serPath), binaryPath);
+	}
+	/**
+	 * Reads a whole file sized by its channel, without intermediate stream buffers
+	 * @param path
+	 * @return contents (byte[])
+	 * @throws IOException
+	 */
+	static byte[] readFully(Path path) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException(path + " is too large to be a key");
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+			if(buffer.hasRemaining())
+				throw new IOException(path + " was truncated while reading");
+			return buffer.array();
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package rsaencryption;
+
+/**
+ * This final class holds a public key and its matching private key
+ * @author Ryan N May
+ */
+public final class KeyPair
+{
+	public final Key publicKey;
+	public final Key privateKey;
+	
+	KeyPair(Key _publicKey, Key _privateKey)
+	{
+		this.publicKey = _publicKey;
+		this.privateKey = _privateKey;
+	}
+}
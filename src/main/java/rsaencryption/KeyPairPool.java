@@ -0,0 +1,181 @@
+package rsaencryption;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps a stock of pre-generated key pairs so they can be issued
+ * without waiting for a prime search. Background threads generate pairs until
+ * the pool holds highWater pairs; every take triggers an asynchronous refill.
+ * When the pool is empty take generates a pair on the calling thread and
+ * counts a miss.
+ * @author Ryan N May
+ */
+public final class KeyPairPool implements AutoCloseable
+{
+	private final int modulusBits;
+	private final int highWater;
+	private final BlockingQueue<KeyPair> pairs;
+	private final ExecutorService generators;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder generated = new LongAdder();
+	private final long createdAt = System.nanoTime();
+	private volatile boolean closed;
+
+	/**
+	 * Creates the pool and starts filling it in the background
+	 * @param modulusBits size of the generated keys (int)
+	 * @param highWater number of pairs to keep ready (int)
+	 * @param threads number of background generator threads (int)
+	 */
+	public KeyPairPool(int modulusBits, int highWater, int threads)
+	{
+		if(highWater <= 0 || threads <= 0)
+			throw new IllegalArgumentException("High-water mark and thread count must be positive");
+		if(modulusBits < KeySet.MIN_MODULUS_BITS)
+			throw new IllegalArgumentException("Modulus must be at least " + KeySet.MIN_MODULUS_BITS + " bits");
+		this.modulusBits = modulusBits;
+		this.highWater = highWater;
+		this.pairs = new ArrayBlockingQueue<>(highWater);
+		this.generators = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "key-pair-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refill();
+	}
+	/**
+	 * Issues a key pair, generating one on the calling thread if the pool is empty
+	 * @return keys (KeyPair)
+	 */
+	public KeyPair take()
+	{
+		KeyPair keys = pairs.poll();
+		if(keys != null)
+			hits.increment();
+		else
+		{
+			misses.increment();
+			keys = generate();
+		}
+		refill();
+		return keys;
+	}
+	/**
+	 * Issues a key pair, waiting up to timeout for a background generator
+	 * @param timeout
+	 * @param unit
+	 * @return keys, or null if none became available in time (KeyPair)
+	 * @throws InterruptedException
+	 */
+	public KeyPair take(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		KeyPair keys = pairs.poll();
+		if(keys != null)
+			hits.increment();
+		else
+		{
+			misses.increment();
+			refill();
+			keys = pairs.poll(timeout, unit);
+		}
+		refill();
+		return keys;
+	}
+	/**
+	 * @return number of pairs ready to be issued (int)
+	 */
+	public int size()
+	{
+		return pairs.size();
+	}
+	public int getHighWater()
+	{
+		return highWater;
+	}
+	public int getModulusBits()
+	{
+		return modulusBits;
+	}
+	/**
+	 * @return takes served from the pool (long)
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+	/**
+	 * @return takes that found the pool empty (long)
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+	/**
+	 * @return pairs generated by the background threads (long)
+	 */
+	public long getGenerated()
+	{
+		return generated.sum();
+	}
+	/**
+	 * @return background pairs generated per second since the pool was created (double)
+	 */
+	public double getRefillRate()
+	{
+		long nanos = System.nanoTime() - createdAt;
+		return nanos <= 0 ? 0.0 : generated.sum() * 1e9 / nanos;
+	}
+	/**
+	 * Stops the background generators. Pairs already in the pool can still be taken.
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+		generators.shutdownNow();
+	}
+	/**
+	 * Schedules background generation until ready plus in-flight pairs reach the high-water mark
+	 */
+	private void refill()
+	{
+		while(!closed)
+		{
+			int inFlight = pending.get();
+			if(pairs.size() + inFlight >= highWater)
+				return;
+			if(!pending.compareAndSet(inFlight, inFlight + 1))
+				continue;
+			try {
+				generators.execute(this::generateInBackground);
+			} catch(RejectedExecutionException ex) {
+				pending.decrementAndGet();
+				return;
+			}
+		}
+	}
+	private void generateInBackground()
+	{
+		try {
+			KeyPair keys = generate();
+			generated.increment();
+			pairs.offer(keys);
+		} finally {
+			pending.decrementAndGet();
+		}
+		refill();
+	}
+	private KeyPair generate()
+	{
+		return KeySet.generateKeyPair(modulusBits, 1);
+	}
+}
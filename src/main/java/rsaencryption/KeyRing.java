@@ -0,0 +1,451 @@
+package rsaencryption;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps many keys in one file, so a service can open thousands of
+ * keys with one open and one mapping instead of one file read per key.
+ * <pre>
+ * header:  magic "RSKR" | version (int) | slots (int) | reserved (int) | count (long) | data end (long)
+ * slots:   slots x (key id (long) | record offset &lt;&lt; 1 | private (long)), offset 0 marks a free slot
+ * records: key id (long) | private (1 byte) | key length (int) | KeyFormat bytes | CRC32 of the record (int)
+ * </pre>
+ * The slot table is an open addressing hash index from key id and kind to the
+ * record offset; the file is memory mapped and a lookup probes the mapped table
+ * and decodes only the record it finds. Keys are appended after the last record:
+ * the record and its slot are written first and the data end in the header last,
+ * so a crash leaves at most an unreferenced tail that the next append overwrites.
+ * Slots of such a tail are cleared when the ring is opened, before any append
+ * could move the data end over them.
+ * When the table passes half full the ring is rewritten with twice the slots into
+ * a temporary file that replaces the original.
+ * A ring is safe for concurrent lookups; appends are serialised.
+ * @author Ryan N May
+ */
+public final class KeyRing implements Closeable
+{
+	public static final String EXTENSION = ".rkr";
+	public static final int VERSION = 1;
+	/** Slots in a new ring unless more are asked for */
+	public static final int DEFAULT_SLOTS = 1024;
+	private static final byte[] MAGIC = {'R', 'S', 'K', 'R'};
+	private static final int HEADER_BYTES = 32;
+	private static final int COUNT_OFFSET = 16;
+	private static final int SLOT_BYTES = 16;
+	private static final int RECORD_OVERHEAD = 8 + 1 + 4 + 4;
+
+	private final Path path;
+	private FileChannel channel;
+	private volatile View view;
+	// Keyed by key id, which with the kind names one record however often the ring is rewritten
+	private final ConcurrentHashMap<Long, LoadedKey> loadedPublic = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Long, LoadedKey> loadedPrivate = new ConcurrentHashMap<>();
+	private boolean unfinished;
+	private boolean closed;
+
+	private KeyRing(Path path, FileChannel channel) throws IOException
+	{
+		this.path = path;
+		this.channel = channel;
+		this.view = map();
+		clearStaleSlots();
+	}
+	/**
+	 * Opens an existing ring, or creates an empty one with DEFAULT_SLOTS slots
+	 * @param path
+	 * @return ring (KeyRing)
+	 * @throws IOException if the file is not a key ring
+	 */
+	public static KeyRing open(Path path) throws IOException
+	{
+		return open(path, DEFAULT_SLOTS / 2);
+	}
+	/**
+	 * Opens an existing ring, or creates an empty one sized for expectedKeys keys
+	 * @param path
+	 * @param expectedKeys keys a new ring should hold before it is first rewritten (int)
+	 * @return ring (KeyRing)
+	 * @throws IOException if the file is not a key ring
+	 */
+	public static KeyRing open(Path path, int expectedKeys) throws IOException
+	{
+		if(!Files.exists(path) || Files.size(path) == 0)
+			create(path, slotsFor(expectedKeys));
+		return new KeyRing(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+	}
+	/**
+	 * Imports key files (.ser or KeyFormat) into the ring in one pass, forcing the file once at the end.
+	 * Key files do not record whether they hold a public or a private key, so the caller says.
+	 * Keys already in the ring are skipped.
+	 * @param keyFiles (List)
+	 * @param privateKeys true if every file holds a private key, false if every file holds a public key (boolean)
+	 * @return number of keys added (int)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public synchronized int importFiles(List<Path> keyFiles, boolean privateKeys) throws IOException, ClassNotFoundException
+	{
+		List<Key> keys = new ArrayList<>(keyFiles.size());
+		for(Path keyFile : keyFiles)
+			keys.add(RSA.readKeyObject(keyFile.toString()));
+		return addAll(keys, privateKeys);
+	}
+	/**
+	 * Appends a key unless the ring already holds a key of the same id and kind
+	 * @param key
+	 * @param privateKey true for the private key of a pair, false for the public key (boolean)
+	 * @return true if the key was added (boolean)
+	 * @throws IOException
+	 */
+	public synchronized boolean add(Key key, boolean privateKey) throws IOException
+	{
+		List<Key> keys = new ArrayList<>(1);
+		keys.add(key);
+		return addAll(keys, privateKey) == 1;
+	}
+	/**
+	 * Appends every key not already in the ring, forcing the file once at the end
+	 * @param keys (List)
+	 * @param privateKeys true if every key is a private key, false if every key is a public key (boolean)
+	 * @return number of keys added (int)
+	 * @throws IOException
+	 */
+	public synchronized int addAll(List<Key> keys, boolean privateKeys) throws IOException
+	{
+		boolean[] kinds = new boolean[keys.size()];
+		Arrays.fill(kinds, privateKeys);
+		return append(keys, kinds);
+	}
+	/**
+	 * @param kinds true where the key at the same index is private
+	 */
+	private int append(List<Key> keys, boolean[] kinds) throws IOException
+	{
+		checkOpen();
+		if(unfinished)
+			clearStaleSlots();
+		View current = view;
+		if((current.count + keys.size()) * 2 > current.slots)
+			current = rehash(slotsFor(current.count + keys.size()));
+		long count = current.count;
+		long end = current.dataEnd;
+		int added = 0;
+		unfinished = true;
+		for(int i = 0; i < keys.size(); i++)
+		{
+			Key key = keys.get(i);
+			long keyId = new LoadedKey(key).getKeyId();
+			boolean privateKey = kinds[i];
+			int slot = current.probe(keyId, privateKey, end, this::readSlot);
+			long entry = readSlot(slot, 8);
+			if(entry != 0L && entry >>> 1 < end)
+				continue; // already in the ring
+			byte[] record = encodeRecord(keyId, privateKey, key);
+			writeFully(ByteBuffer.wrap(record), end);
+			ByteBuffer slotEntry = ByteBuffer.allocate(SLOT_BYTES);
+			slotEntry.putLong(keyId).putLong(end << 1 | (privateKey ? 1 : 0)).flip();
+			writeFully(slotEntry, HEADER_BYTES + (long) slot * SLOT_BYTES);
+			end += record.length;
+			count++;
+			added++;
+		}
+		if(added > 0)
+		{
+			// Records and slots must reach the disk before the header that covers them
+			channel.force(false);
+			ByteBuffer header = ByteBuffer.allocate(16);
+			header.putLong(count).putLong(end).flip();
+			writeFully(header, COUNT_OFFSET);
+			channel.force(false);
+			view = map();
+		}
+		unfinished = false;
+		return added;
+	}
+	/**
+	 * Looks up a key by id through the mapped index, decoding it on first use
+	 * @param keyId id from LoadedKey.getKeyId (long)
+	 * @param privateKey true for the private key of the pair, false for the public key (boolean)
+	 * @return key, or null if the ring does not hold it (LoadedKey)
+	 * @throws IOException if the record is damaged
+	 */
+	public LoadedKey get(long keyId, boolean privateKey) throws IOException
+	{
+		View current = view;
+		long offset = current.find(keyId, privateKey);
+		if(offset == 0L)
+			return null;
+		ConcurrentHashMap<Long, LoadedKey> loaded = privateKey ? loadedPrivate : loadedPublic;
+		LoadedKey key = loaded.get(keyId);
+		if(key == null)
+		{
+			key = new LoadedKey(current.readKey(offset, keyId, privateKey));
+			LoadedKey raced = loaded.putIfAbsent(keyId, key);
+			if(raced != null)
+				key = raced;
+		}
+		return key;
+	}
+	/**
+	 * @param keyId (long)
+	 * @param privateKey (boolean)
+	 * @return true if the ring holds the key (boolean)
+	 */
+	public boolean contains(long keyId, boolean privateKey)
+	{
+		return view.find(keyId, privateKey) != 0L;
+	}
+	/**
+	 * @return ids of the keys in the ring in the order they were added, public and private keys of a pair listed separately (long[])
+	 */
+	public long[] keyIds()
+	{
+		View current = view;
+		long[] ids = new long[(int) current.count];
+		long offset = current.dataStart();
+		for(int i = 0; i < ids.length; i++)
+		{
+			ids[i] = current.buffer.getLong((int) offset);
+			offset += RECORD_OVERHEAD + current.buffer.getInt((int) offset + 9);
+		}
+		return ids;
+	}
+	/**
+	 * @return number of keys in the ring (long)
+	 */
+	public long size()
+	{
+		return view.count;
+	}
+	/**
+	 * @return slots in the hash index (int)
+	 */
+	public int getSlots()
+	{
+		return view.slots;
+	}
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		channel.close();
+	}
+
+	private static int slotsFor(long keys)
+	{
+		int slots = DEFAULT_SLOTS;
+		while(slots < keys * 2)
+		{
+			if(slots >= 1 << 26)
+				throw new IllegalArgumentException("Too many keys for one ring: " + keys);
+			slots <<= 1;
+		}
+		return slots;
+	}
+	private static void create(Path path, int slots) throws IOException
+	{
+		try(FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.put(MAGIC).putInt(VERSION).putInt(slots).putInt(0).putLong(0L).putLong(HEADER_BYTES + (long) slots * SLOT_BYTES);
+			header.flip();
+			while(header.hasRemaining())
+				out.write(header);
+			// Extend the file over the empty slot table
+			out.write(ByteBuffer.allocate(1), HEADER_BYTES + (long) slots * SLOT_BYTES - 1);
+			out.force(true);
+		}
+	}
+	private static byte[] encodeRecord(long keyId, boolean privateKey, Key key)
+	{
+		byte[] encoded = KeyFormat.encode(key);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + encoded.length);
+		record.putLong(keyId).put((byte) (privateKey ? 1 : 0)).putInt(encoded.length).put(encoded);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int) crc.getValue());
+		return record.array();
+	}
+	/**
+	 * Copies every live record into a new ring with the given slots and replaces this file with it
+	 */
+	private View rehash(int slots) throws IOException
+	{
+		View old = view;
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		create(temp, slots);
+		try(KeyRing larger = new KeyRing(temp, FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE))) {
+			List<Key> keys = new ArrayList<>((int) old.count);
+			boolean[] kinds = new boolean[(int) old.count];
+			long offset = old.dataStart();
+			for(int i = 0; i < kinds.length; i++)
+			{
+				long keyId = old.buffer.getLong((int) offset);
+				kinds[i] = old.buffer.get((int) offset + 8) != 0;
+				keys.add(old.readKey(offset, keyId, kinds[i]));
+				offset += RECORD_OVERHEAD + old.buffer.getInt((int) offset + 9);
+			}
+			larger.append(keys, kinds);
+		}
+		channel.close();
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		view = map();
+		return view;
+	}
+	/**
+	 * Zeroes slots pointing at or past the data end, left by an append that never
+	 * completed. Otherwise the next append would move the data end over them and
+	 * they would point into another key's record.
+	 */
+	private void clearStaleSlots() throws IOException
+	{
+		View current = view;
+		ByteBuffer free = ByteBuffer.allocate(SLOT_BYTES);
+		boolean cleared = false;
+		for(int slot = 0; slot < current.slots; slot++)
+		{
+			long entry = current.buffer.getLong(HEADER_BYTES + slot * SLOT_BYTES + 8);
+			if(entry != 0L && entry >>> 1 >= current.dataEnd)
+			{
+				free.clear();
+				writeFully(free, HEADER_BYTES + (long) slot * SLOT_BYTES);
+				cleared = true;
+			}
+		}
+		if(cleared)
+			channel.force(false);
+		unfinished = false;
+	}
+	private long readSlot(int slot, int field)
+	{
+		try {
+			ByteBuffer value = ByteBuffer.allocate(8);
+			long at = HEADER_BYTES + (long) slot * SLOT_BYTES + field;
+			while(value.hasRemaining() && channel.read(value, at + value.position()) > 0);
+			return value.getLong(0);
+		} catch(IOException ex) {
+			throw new IllegalStateException("Could not read slot " + slot + " of " + path, ex);
+		}
+	}
+	private View map() throws IOException
+	{
+		long size = channel.size();
+		if(size < HEADER_BYTES)
+			throw new IOException(path + " is too short to be a key ring");
+		if(size > Integer.MAX_VALUE)
+			throw new IOException(path + " is too large to map");
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		for(byte b : MAGIC)
+			if(buffer.get() != b)
+				throw new IOException(path + " is not a key ring");
+		int version = buffer.getInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported key ring version " + version);
+		int slots = buffer.getInt();
+		buffer.getInt();
+		long count = buffer.getLong();
+		long dataEnd = buffer.getLong();
+		if(slots <= 0 || Integer.bitCount(slots) != 1 || count < 0 || count * 2 > slots
+				|| dataEnd < HEADER_BYTES + (long) slots * SLOT_BYTES || dataEnd > size)
+			throw new IOException(path + " has a damaged key ring header");
+		return new View(buffer, slots, count, dataEnd);
+	}
+	private void writeFully(ByteBuffer buffer, long at) throws IOException
+	{
+		while(buffer.hasRemaining())
+			at += channel.write(buffer, at);
+	}
+	private void checkOpen() throws IOException
+	{
+		if(closed)
+			throw new IOException("Key ring is closed");
+	}
+
+	/** Reads a slot field (key id at 0, offset at 8) of the table being appended to */
+	private interface SlotReader
+	{
+		long read(int slot, int field);
+	}
+
+	/** Mapping of the ring as of the last completed append; replaced, never changed */
+	private static final class View
+	{
+		final MappedByteBuffer buffer;
+		final int slots;
+		final long count;
+		final long dataEnd;
+
+		View(MappedByteBuffer buffer, int slots, long count, long dataEnd)
+		{
+			this.buffer = buffer;
+			this.slots = slots;
+			this.count = count;
+			this.dataEnd = dataEnd;
+		}
+		long dataStart()
+		{
+			return HEADER_BYTES + (long) slots * SLOT_BYTES;
+		}
+		/**
+		 * @return offset of the record for keyId, 0 if absent
+		 */
+		long find(long keyId, boolean privateKey)
+		{
+			int slot = probe(keyId, privateKey, dataEnd, (s, field) -> buffer.getLong(HEADER_BYTES + s * SLOT_BYTES + field));
+			long entry = buffer.getLong(HEADER_BYTES + slot * SLOT_BYTES + 8);
+			return entry >>> 1 >= dataEnd ? 0L : entry >>> 1;
+		}
+		/**
+		 * Linear probing from the home slot of the key. Slots pointing at or past
+		 * limit belong to an append that never completed and count as free.
+		 * @return the slot holding the key, or the free slot where it would go
+		 */
+		int probe(long keyId, boolean privateKey, long limit, SlotReader slotReader)
+		{
+			long hash = (keyId ^ (privateKey ? 0x9E3779B97F4A7C15L : 0L)) * 0xC2B2AE3D27D4EB4FL;
+			int mask = slots - 1;
+			int slot = (int) (hash >>> 32) & mask;
+			while(true)
+			{
+				long entry = slotReader.read(slot, 8);
+				if(entry == 0L || entry >>> 1 >= limit)
+					return slot;
+				if(slotReader.read(slot, 0) == keyId && ((entry & 1) != 0) == privateKey)
+					return slot;
+				slot = (slot + 1) & mask;
+			}
+		}
+		Key readKey(long offset, long keyId, boolean privateKey) throws IOException
+		{
+			if(offset + RECORD_OVERHEAD > dataEnd)
+				throw new IOException("Key ring record at " + offset + " is truncated");
+			ByteBuffer record = buffer.duplicate();
+			record.position((int) offset);
+			int length = record.getInt((int) offset + 9);
+			if(length <= 0 || offset + RECORD_OVERHEAD + length > dataEnd)
+				throw new IOException("Key ring record at " + offset + " is truncated");
+			byte[] bytes = new byte[RECORD_OVERHEAD - 4 + length];
+			record.get(bytes);
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			if(record.getInt() != (int) crc.getValue() || record.getLong((int) offset) != keyId || (record.get((int) offset + 8) != 0) != privateKey)
+				throw new IOException("Key ring record at " + offset + " is damaged");
+			return KeyFormat.decode(ByteBuffer.wrap(bytes, RECORD_OVERHEAD - 4, length));
+		}
+	}
+}
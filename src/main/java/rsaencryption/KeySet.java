@@ -1,9 +1,14 @@
 package rsaencryption;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
 import java.io.IOException;
 
 /**
@@ -17,12 +22,92 @@ public class KeySet
 	private static final int BITSPACE_LOW = 2;
 	private static final int BITSPACE_e = 5;
 	
+	/** Modulus size used when none is given, matching the original 32 bit primes */
+	public static final int DEFAULT_MODULUS_BITS = 2 * BITSPACE_HIGH;
+	/** Smallest modulus that can still carry one data byte per block */
+	public static final int MIN_MODULUS_BITS = 16;
+	/** Prime size from which generateKeyPair searches for primes on every core */
+	public static final int PARALLEL_PRIME_BITS = 512;
+	/** Key pairs generated per modulus size by the -t latency report */
+	private static final int TIMING_ROUNDS = 5;
+	private static final SecureRandom RANDOM = new SecureRandom();
+	
 	public static void main(String[] args)
 	{
 		if(args.length == 2)
 			CreateKeys(args[0], args[1]);
+		else if(args.length == 4 && args[0].equals("-b"))
+			CreateKeys(args[2], args[3], Integer.parseInt(args[1]));
+		else if(args.length == 3 && args[0].equals("-c"))
+		{
+			try {
+				KeyFormat.convert(args[1], args[2]);
+			} catch(IOException | ClassNotFoundException ex) {
+				System.out.println("Could not convert " + args[1] + ": " + ex.getMessage());
+			}
+		}
+		else if(args.length >= 4 && args[0].equals("-i") && (args[2].equals("-public") || args[2].equals("-private")))
+		{	// key files do not say which kind they hold, -public and -private mark the files that follow
+			List<Path> publicKeys = new ArrayList<>();
+			List<Path> privateKeys = new ArrayList<>();
+			List<Path> target = publicKeys;
+			for(int i = 2; i < args.length; i++)
+			{
+				if(args[i].equals("-public"))
+					target = publicKeys;
+				else if(args[i].equals("-private"))
+					target = privateKeys;
+				else
+					target.add(Paths.get(args[i]));
+			}
+			try(KeyRing ring = KeyRing.open(Paths.get(args[1]), publicKeys.size() + privateKeys.size())) {
+				int added = ring.importFiles(publicKeys, false) + ring.importFiles(privateKeys, true);
+				System.out.println("Imported " + added + " of " + (publicKeys.size() + privateKeys.size()) + " keys, " + ring.size() + " in " + args[1]);
+			} catch(IOException | ClassNotFoundException ex) {
+				System.out.println("Could not import into " + args[1] + ": " + ex.getMessage());
+			}
+		}
+		else if(args.length >= 1 && args[0].equals("-t"))
+		{
+			int[] sizes = new int[args.length == 1 ? 4 : args.length - 1];
+			for(int i = 0; i < sizes.length; i++)
+				sizes[i] = args.length == 1 ? 512 << i : Integer.parseInt(args[i + 1]);
+			reportLatency(sizes);
+		}
 		else
-			System.out.println("Usage: KeyGen publicKeyPath.ser PrivateKeyPath.ser");
+		{
+			System.out.println("Usage: KeyGen [-b modulusBits] publicKeyPath.ser|.rsk PrivateKeyPath.ser|.rsk");
+			System.out.println("       KeyGen -c key.ser key.rsk   (convert to the binary key format)");
+			System.out.println("       KeyGen -i ring.rkr -public pub.ser... [-private pri.ser...]   (import keys into a key ring)");
+			System.out.println("       KeyGen -t [modulusBits...]   (key generation latency report)");
+		}
+	}
+	/**
+	 * Generates TIMING_ROUNDS key pairs for each modulus size and prints the
+	 * minimum, mean and maximum latency and the prime candidates tried per pair.
+	 * @param sizes modulus sizes in bits (int[])
+	 */
+	public static void reportLatency(int[] sizes)
+	{
+		System.out.println("bits\tmin_ms\tmean_ms\tmax_ms\tsieved\ttested");
+		for(int bits : sizes)
+		{
+			long min = Long.MAX_VALUE, max = 0, total = 0;
+			long sieved = PrimeGenerator.getSievedCount();
+			long tested = PrimeGenerator.getTestedCount();
+			for(int i = 0; i < TIMING_ROUNDS; i++)
+			{
+				long start = System.nanoTime();
+				generateKeyPair(bits);
+				long elapsed = System.nanoTime() - start;
+				min = Math.min(min, elapsed);
+				max = Math.max(max, elapsed);
+				total += elapsed;
+			}
+			System.out.printf("%d\t%.1f\t%.1f\t%.1f\t%d\t%d%n", bits, min / 1e6, total / 1e6 / TIMING_ROUNDS, max / 1e6,
+					(PrimeGenerator.getSievedCount() - sieved) / TIMING_ROUNDS,
+					(PrimeGenerator.getTestedCount() - tested) / TIMING_ROUNDS);
+		}
 	}
 	/**
 	 * This method creates the private and public keys, serializes the key objects, and 
@@ -34,75 +119,141 @@ public class KeySet
 	 */
 	public static void CreateKeys(String publicKeyFileLocation, String privateKeyFileLocation)
 	{
-		BigInteger U = BigInteger.valueOf(1L);
+		CreateKeys(publicKeyFileLocation, privateKeyFileLocation, DEFAULT_MODULUS_BITS);
+	}
+	/**
+	 * This method creates private and public keys with a modulus of exactly modulusBits bits
+	 * and serializes the key objects.
+	 * 
+	 * @param publicKeyFileLocation (String)
+	 * @param privateKeyFileLocation (String)
+	 * @param modulusBits (int)
+	 * @return (void)
+	 */
+	public static void CreateKeys(String publicKeyFileLocation, String privateKeyFileLocation, int modulusBits)
+	{
+		writeKeyPair(generateKeyPair(modulusBits), publicKeyFileLocation, privateKeyFileLocation);
+	}
+	/**
+	 * This method serializes an already generated key pair, for example one taken from a KeyPairPool.
+	 * Each path ending in KeyFormat.EXTENSION is written in the binary key format.
+	 * 
+	 * @param keys (KeyPair)
+	 * @param publicKeyFileLocation (String)
+	 * @param privateKeyFileLocation (String)
+	 * @return (void)
+	 */
+	public static void writeKeyPair(KeyPair keys, String publicKeyFileLocation, String privateKeyFileLocation)
+	{
+		try {
+			writeKey(keys.publicKey, publicKeyFileLocation);
+			writeKey(keys.privateKey, privateKeyFileLocation);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}	
+	}
+	/**
+	 * This method writes one key in the format its path asks for, serializing it unless the
+	 * path ends in KeyFormat.EXTENSION.
+	 * 
+	 * @param key (Key)
+	 * @param keyFileLocation (String)
+	 * @return (void)
+	 * @throws IOException
+	 */
+	private static void writeKey(Key key, String keyFileLocation) throws IOException
+	{
+		if(keyFileLocation.endsWith(KeyFormat.EXTENSION))
+		{
+			KeyFormat.write(key, keyFileLocation);
+			return;
+		}
+		if(!keyFileLocation.contains(".ser"))
+			keyFileLocation += ".ser";
+		try(ObjectOutputStream keyObj = new ObjectOutputStream(new FileOutputStream(keyFileLocation))) {
+			keyObj.writeObject(key);
+		}
+	}
+	/**
+	 * This method generates a key pair in memory. The primes are half the modulus size
+	 * each and are regenerated until their product has exactly modulusBits bits.
+	 * Primes of PARALLEL_PRIME_BITS or more are searched for on every core.
+	 * 
+	 * @param modulusBits (int)
+	 * @return keys (KeyPair)
+	 */
+	public static KeyPair generateKeyPair(int modulusBits)
+	{
+		int threads = modulusBits / 2 >= PARALLEL_PRIME_BITS ? Runtime.getRuntime().availableProcessors() : 1;
+		return generateKeyPair(modulusBits, threads);
+	}
+	/**
+	 * As generateKeyPair(modulusBits), searching for each prime on the given number of threads
+	 * 
+	 * @param modulusBits (int)
+	 * @param threads (int)
+	 * @return keys (KeyPair)
+	 */
+	public static KeyPair generateKeyPair(int modulusBits, int threads)
+	{
+		if(modulusBits < MIN_MODULUS_BITS)
+			throw new IllegalArgumentException("Modulus must be at least " + MIN_MODULUS_BITS + " bits");
+		BigInteger U = BigInteger.ONE;
 		BigInteger A = BigInteger.valueOf(2L);
 		BigInteger q, p, n, n_phi, e, d;
 		do
 		{
-			// Generating prime q
-			q = BigInteger.valueOf(generatePrime());
-			// Generating prime p
-			p = BigInteger.valueOf(generatePrime());
+			// Generating primes p and q
+			p = PrimeGenerator.generate((modulusBits + 1) / 2, threads);
+			q = PrimeGenerator.generate(modulusBits / 2, threads);
 			// Generating n
 			n = p.multiply(q);
 			// Generating n_phi
-			n_phi = BigInteger.valueOf(p.longValue()-1).multiply(BigInteger.valueOf(q.longValue()-1));
+			n_phi = p.subtract(U).multiply(q.subtract(U));
 			// Generating e
-			Random rand = new Random();
 			do { 
-				e = BigInteger.valueOf((rand.nextLong() + (long)Math.pow(2, 0)) % (long)Math.pow(2, BITSPACE_e));				
-			}while(gcd(e, n_phi) != 1);
+				e = BigInteger.valueOf(2 + RANDOM.nextInt((1 << BITSPACE_e) - 2));
+			}while(!e.gcd(n_phi).equals(U));
 			// Generating d
-			d = BigInteger.valueOf(extendedEuclidean(e, n_phi)[1]);
-			if(d.longValue() < 0)
-				d.add(n_phi);
-		}while(	!(e.multiply(d).mod(n_phi).equals(U)) 
-					|| (e.longValue() < 0) || (d.longValue() < 0)
-					|| (d.equals(U)) || (e.equals(U))
- 					|| (e.equals(d))
-					|| !BigInteger.valueOf(2L).modPow(e, n).modPow(d, n).equals(A));
+			d = e.modInverse(n_phi);
+		}while(	p.equals(q)
+					|| n.bitLength() != modulusBits
+					|| (d.equals(U)) || (e.equals(d))
+					|| !A.modPow(e, n).modPow(d, n).equals(A));
 		Key publicKey = new Key(e, n);
-		Key privateKey = new Key(d, n);
-			
-		try {
-			if(!publicKeyFileLocation.contains(".ser"))
-				publicKeyFileLocation += ".ser";
-			if(!privateKeyFileLocation.contains(".ser"))
-				privateKeyFileLocation += ".ser";
-				
-			FileOutputStream publicKeyFile = new FileOutputStream(publicKeyFileLocation);
-			FileOutputStream privateKeyFile = new FileOutputStream(privateKeyFileLocation);
-				
-			ObjectOutputStream publicKeyObj = new ObjectOutputStream(publicKeyFile);
-			ObjectOutputStream privateKeyObj = new ObjectOutputStream(privateKeyFile);
-				
-			publicKeyObj.writeObject(publicKey);
-			privateKeyObj.writeObject(privateKey);
-				
-			publicKeyFile.close();
-			privateKeyFile.close();	
-		} catch (IOException ex) {
-			ex.printStackTrace();
-		}	
+		// Chinese Remainder Theorem parameters for faster private key operations
+		BigInteger dP = d.mod(p.subtract(U));
+		BigInteger dQ = d.mod(q.subtract(U));
+		BigInteger qInv = q.modInverse(p);
+		Key privateKey = new Key(d, n, p, q, dP, dQ, qInv);
+		if(!new LoadedKey(privateKey).apply(A.modPow(e, n)).equals(A))
+			privateKey = new Key(d, n); // pseudo-prime factor, fall back to the full width exponent
+		return new KeyPair(publicKey, privateKey);
+	}
+	/**
+	 * This method generates a prime of exactly bits bits (see PrimeGenerator).
+	 * @param bits (int)
+	 * @return prime (BigInteger)
+	 */
+	public static BigInteger generatePrime(int bits)
+	{
+		return PrimeGenerator.generate(bits, RANDOM);
 	}
 	/**
-	 * This method generates primes via RNG plus fermats primality theorum.   
+	 * This method generates primes in the original 2^2 to 2^32 range via RNG plus the
+	 * Miller-Rabin test, so Fermat pseudo-primes are no longer returned.
 	 * @param (void)
-	 * @return coprime (long)
+	 * @return prime (long)
 	 */
 	public static long generatePrime()
 	{
 		Random rand = new Random();
 		long prime;
-		BigInteger PRIME;
-		BigInteger A = BigInteger.valueOf(2L);
-		BigInteger U = BigInteger.valueOf(1L);
 		do
 		{	// Generate random number (hopefully prime)
 			prime = (rand.nextLong() + (long)Math.pow(2,  BITSPACE_LOW)) % (long)Math.pow(2, BITSPACE_HIGH);
-			PRIME = BigInteger.valueOf(prime);
-		}while(prime < 0 || (A.modPow(PRIME.subtract(U), PRIME).equals(U)) != true);
-		return prime; // returns prime that may be inclusive of pseudo-primes. 
+		}while(prime < 0 || !PrimeGenerator.isProbablePrime(BigInteger.valueOf(prime), rand));
+		return prime;
 	}
 	/**
 	 * This method performs the extended Euclidean or extended GCD algorithm. 
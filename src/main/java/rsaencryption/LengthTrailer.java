@@ -0,0 +1,136 @@
+package rsaencryption;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class describes the trailer that ends an encrypted file in the block format.
+ * <pre>
+ * blocks:  the cipher blocks, the final one carrying zero fill
+ * trailer: magic "RSAL" | original length (long)
+ * </pre>
+ * Blocks alone cannot tell a zero fill from zero bytes of plaintext, so the
+ * file methods record the original length after the last block and decryption
+ * trims the output back to it. Streams carry no trailer. A file without one,
+ * such as the output of an earlier version or of a stream, still decrypts to
+ * its whole blocks; the trailer is only taken as one if the bytes before it
+ * are exactly the blocks of the length it records.
+ * @author Ryan N May
+ */
+public final class LengthTrailer
+{
+	public static final int BYTES = 12;
+	static final byte[] MAGIC = {'R', 'S', 'A', 'L'};
+
+	private LengthTrailer() {}
+
+	/**
+	 * @param length plaintext bytes (long)
+	 * @return the trailer recording length (byte[])
+	 */
+	public static byte[] encode(long length)
+	{
+		if(length < 0)
+			throw new IllegalArgumentException("Length must not be negative");
+		return ByteBuffer.allocate(BYTES).put(MAGIC).putLong(length).array();
+	}
+	/**
+	 * @param trailer the last BYTES bytes of the file, from its position (ByteBuffer)
+	 * @param fileSize bytes in the file, trailer included (long)
+	 * @param format block format of the file (BlockFormat)
+	 * @return the recorded length, or -1 if the bytes are not a trailer (long)
+	 */
+	public static long decode(ByteBuffer trailer, long fileSize, BlockFormat format)
+	{
+		if(fileSize < BYTES || trailer.remaining() < BYTES)
+			return -1L;
+		ByteBuffer bytes = trailer.duplicate();
+		for(byte b : MAGIC)
+			if(bytes.get() != b)
+				return -1L;
+		long length = bytes.getLong();
+		if(length < 0 || format.encryptedLength(length) != fileSize - BYTES)
+			return -1L;
+		return length;
+	}
+	/**
+	 * Reads the trailer at the end of an encrypted file without moving the channel position
+	 * @param channel (FileChannel)
+	 * @param format block format of the file (BlockFormat)
+	 * @return the recorded length, or -1 if the file has no trailer (long)
+	 * @throws IOException
+	 */
+	public static long read(FileChannel channel, BlockFormat format) throws IOException
+	{
+		long size = channel.size();
+		if(size < BYTES)
+			return -1L;
+		ByteBuffer trailer = ByteBuffer.allocate(BYTES);
+		while(trailer.hasRemaining())
+			if(channel.read(trailer, size - BYTES + trailer.position()) < 0)
+				return -1L;
+		trailer.flip();
+		return decode(trailer, size, format);
+	}
+	/**
+	 * @param fileSize (long)
+	 * @param length as returned by read (long)
+	 * @return bytes of cipher blocks before the trailer, if there is one (long)
+	 */
+	public static long blockBytes(long fileSize, long length)
+	{
+		return length < 0 ? fileSize : fileSize - BYTES;
+	}
+	/**
+	 * @param in
+	 * @param limit bytes to pass on (long)
+	 * @return in, ending after limit bytes (InputStream)
+	 */
+	static InputStream limit(InputStream in, long limit)
+	{
+		return new FilterInputStream(in) {
+			private long left = limit;
+
+			@Override
+			public int read() throws IOException
+			{
+				if(left <= 0)
+					return -1;
+				int b = super.read();
+				if(b >= 0)
+					left--;
+				return b;
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				if(left <= 0)
+					return -1;
+				int n = super.read(b, off, (int) Math.min(len, left));
+				if(n > 0)
+					left -= n;
+				return n;
+			}
+			@Override
+			public long skip(long n) throws IOException
+			{
+				long skipped = super.skip(Math.min(n, left));
+				left -= skipped;
+				return skipped;
+			}
+			@Override
+			public int available() throws IOException
+			{
+				return (int) Math.min(super.available(), left);
+			}
+			@Override
+			public boolean markSupported()
+			{
+				return false;
+			}
+		};
+	}
+}
@@ -0,0 +1,141 @@
+package rsaencryption;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An RSA key that has been read once and is ready to be applied to blocks.
+ * Private keys that carry their prime factors are applied with Chinese
+ * Remainder Theorem recombination: two half width exponentiations instead
+ * of one full width exponentiation. Keys whose modulus fits in 64 bits are
+ * applied with primitive long arithmetic (see MontgomeryEngine).
+ * Instances are immutable and may be shared between threads.
+ * @author Ryan N May
+ */
+public final class LoadedKey
+{
+	private final BigInteger exponent;
+	private final BigInteger modulus;
+	private final BigInteger p, q, dP, dQ, qInv; // null unless CRT is available
+	private final MontgomeryEngine engine; // null unless the modulus fits in a long
+
+	/**
+	 * @param key deserialised key (Key)
+	 */
+	public LoadedKey(Key key)
+	{
+		this(key.element1, key.element2, key.p, key.q, key.dP, key.dQ, key.qInv);
+	}
+	/**
+	 * @param exponent (BigInteger)
+	 * @param modulus (BigInteger)
+	 */
+	public LoadedKey(BigInteger exponent, BigInteger modulus)
+	{
+		this(exponent, modulus, null, null, null, null, null);
+	}
+	/**
+	 * @param exponent private exponent d (BigInteger)
+	 * @param modulus (BigInteger)
+	 * @param p prime factor of modulus, or null (BigInteger)
+	 * @param q prime factor of modulus, or null (BigInteger)
+	 * @param dP d mod (p-1), or null (BigInteger)
+	 * @param dQ d mod (q-1), or null (BigInteger)
+	 * @param qInv q^-1 mod p, or null (BigInteger)
+	 */
+	public LoadedKey(BigInteger exponent, BigInteger modulus, BigInteger p, BigInteger q, BigInteger dP, BigInteger dQ, BigInteger qInv)
+	{
+		if(exponent == null || modulus == null || modulus.signum() <= 0)
+			throw new IllegalArgumentException("Key requires an exponent and a positive modulus");
+		this.exponent = exponent;
+		this.modulus = modulus;
+		boolean crt = p != null && q != null && dP != null && dQ != null && qInv != null
+				&& p.multiply(q).equals(modulus);
+		this.p = crt ? p : null;
+		this.q = crt ? q : null;
+		this.dP = crt ? dP : null;
+		this.dQ = crt ? dQ : null;
+		this.qInv = crt ? qInv : null;
+		this.engine = MontgomeryEngine.supports(exponent, modulus) ? new MontgomeryEngine(exponent, modulus) : null;
+	}
+	public BigInteger getExponent()
+	{
+		return exponent;
+	}
+	public BigInteger getModulus()
+	{
+		return modulus;
+	}
+	/**
+	 * @return the widest block format this key can carry (BlockFormat)
+	 */
+	public BlockFormat getBlockFormat()
+	{
+		return BlockFormat.forModulus(modulus);
+	}
+	/**
+	 * Identifies the key pair this key belongs to: the first 8 bytes of the
+	 * SHA-256 digest of the modulus, so public and private keys share an id.
+	 * @return key id (long)
+	 */
+	public long getKeyId()
+	{
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(modulus.toByteArray());
+			long id = 0L;
+			for(int i = 0; i < 8; i++)
+				id = (id << 8) | (digest[i] & 0xFF);
+			return id;
+		} catch(NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not available", ex);
+		}
+	}
+	/**
+	 * @return true if apply uses Chinese Remainder Theorem recombination (boolean)
+	 */
+	public boolean usesCRT()
+	{
+		return p != null;
+	}
+	/**
+	 * @return true if blocks can be applied as primitive longs with apply(long[], long[], int, int) (boolean)
+	 */
+	public boolean usesLongPath()
+	{
+		return engine != null;
+	}
+	/**
+	 * Performs the RSA operation (block^exponent mod modulus) on a single block
+	 * @param block (BigInteger)
+	 * @return (BigInteger)
+	 */
+	public BigInteger apply(BigInteger block)
+	{
+		if(engine != null && block.signum() >= 0 && block.bitLength() <= 64)
+		{
+			return MontgomeryEngine.toBigInteger(engine.modPow(block.longValue()));
+		}
+		if(p == null)
+			return block.modPow(exponent, modulus);
+		// Garner's recombination: m = m2 + q * (qInv * (m1 - m2) mod p)
+		BigInteger m1 = block.modPow(dP, p);
+		BigInteger m2 = block.modPow(dQ, q);
+		BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+		return m2.add(h.multiply(q));
+	}
+	/**
+	 * Performs the RSA operation on in[from..to) as unsigned longs, storing the results in out
+	 * @param in
+	 * @param out (may be the same array as in)
+	 * @param from
+	 * @param to
+	 * @throws IllegalStateException if the key does not use the long path
+	 */
+	public void apply(long[] in, long[] out, int from, int to)
+	{
+		if(engine == null)
+			throw new IllegalStateException("A " + modulus.bitLength() + " bit modulus does not fit in a long");
+		engine.modPow(in, out, from, to);
+	}
+}
@@ -0,0 +1,171 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+
+/**
+ * This class encrypts and decrypts files through memory mapped windows.
+ * The output file is sized up front from the block expansion of the input,
+ * then input and output are mapped one window at a time and blocks are
+ * decoded from and encoded into the mapped regions directly. Heap use is
+ * one batch of blocks however large the file, and files beyond 2 GB work.
+ * The output is byte for byte the same as RSA.encryptFile and RSA.decryptFile,
+ * LengthTrailer included.
+ * @author Ryan N May
+ */
+public final class MappedFileCipher
+{
+	/** Bytes of the wider side (input or output) mapped per window */
+	public static final int WINDOW_BYTES = 64 << 20;
+
+	private MappedFileCipher() {}
+
+	/**
+	 * Encrypts a file through memory mapped windows
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encrypt(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		encrypt(Paths.get(inputPath), Paths.get(outputPath), key, key.getBlockFormat(), executor, parallelism);
+	}
+	/**
+	 * Decrypts a file through memory mapped windows
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor may be null to stay on the calling thread
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decrypt(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		decrypt(Paths.get(inputPath), Paths.get(outputPath), key, key.getBlockFormat(), executor, parallelism);
+	}
+	/**
+	 * As encrypt with an already loaded key and explicit block format
+	 * @param input
+	 * @param output
+	 * @param key
+	 * @param format
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public static void encrypt(Path input, Path output, LoadedKey key, BlockFormat format, Executor executor, int parallelism) throws IOException
+	{
+		long length = transform(input, output, key, new BlockCodec(format.getDataBytes()), new BlockCodec(format.getBlockBytes()), format, executor, parallelism, 0);
+		try(FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE)) {
+			ByteBuffer trailer = ByteBuffer.wrap(LengthTrailer.encode(length));
+			long position = out.size();
+			while(trailer.hasRemaining())
+				position += out.write(trailer, position);
+		}
+	}
+	/**
+	 * As decrypt with an already loaded key and explicit block format
+	 * @param input
+	 * @param output
+	 * @param key
+	 * @param format
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public static void decrypt(Path input, Path output, LoadedKey key, BlockFormat format, Executor executor, int parallelism) throws IOException
+	{
+		long length;
+		long blockBytes;
+		try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+			length = LengthTrailer.read(in, format);
+			blockBytes = LengthTrailer.blockBytes(in.size(), length);
+		}
+		transform(input, output, key, new BlockCodec(format.getBlockBytes()), new BlockCodec(format.getDataBytes()), format, executor, parallelism, 0, blockBytes);
+		if(length >= 0)
+		{
+			try(FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE)) {
+				out.truncate(length);
+			}
+		}
+	}
+	/**
+	 * Maps windowBlocks blocks of input and output at a time; 0 sizes windows from WINDOW_BYTES.
+	 * @return input bytes transformed (long)
+	 */
+	static long transform(Path input, Path output, LoadedKey key, BlockCodec reader, BlockCodec writer, BlockFormat format, Executor executor, int parallelism, int windowBlocks) throws IOException
+	{
+		return transform(input, output, key, reader, writer, format, executor, parallelism, windowBlocks, -1L);
+	}
+	/**
+	 * As transform, reading only the first inputBytes of input; -1 reads all of it.
+	 */
+	static long transform(Path input, Path output, LoadedKey key, BlockCodec reader, BlockCodec writer, BlockFormat format, Executor executor, int parallelism, int windowBlocks, long inputBytes) throws IOException
+	{
+		if(!format.fits(key.getModulus()))
+			throw new IllegalArgumentException("Block format " + format + " does not fit a " + key.getModulus().bitLength() + " bit modulus");
+		int inWidth = reader.getWidth();
+		int outWidth = writer.getWidth();
+		if(windowBlocks <= 0)
+			windowBlocks = Math.max(1, WINDOW_BYTES / Math.max(inWidth, outWidth));
+		try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+			long inSize = inputBytes < 0 ? in.size() : Math.min(inputBytes, in.size());
+			long blockCount = (inSize + inWidth - 1) / inWidth;
+			file.setLength(blockCount * outWidth);
+			FileChannel out = file.getChannel();
+			boolean longPath = RSA.usesLongPath(key, reader, writer);
+			int batchBlocks = Math.min(windowBlocks, reader.getBatchBlocks());
+			long[] longs = longPath ? new long[batchBlocks] : null;
+			BigInteger[] blocks = longPath ? null : new BigInteger[batchBlocks];
+			for(long first = 0; first < blockCount; first += windowBlocks)
+			{
+				long inOffset = first * inWidth;
+				int inLength = (int) Math.min((long) windowBlocks * inWidth, inSize - inOffset);
+				int count = (inLength + inWidth - 1) / inWidth;
+				MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, inOffset, inLength);
+				MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, first * outWidth, (long) count * outWidth);
+				for(int start = 0; start < count; start += batchBlocks)
+				{
+					int batch = Math.min(batchBlocks, count - start);
+					if(longPath)
+					{
+						for(int i = 0; i < batch; i++)
+						{
+							int off = (start + i) * inWidth;
+							longs[i] = reader.decodeLong(src, off, inLength - off);
+						}
+						RSA.modPowBlocks(longs, longs, batch, key, executor, parallelism);
+						for(int i = 0; i < batch; i++)
+							writer.encodeLong(longs[i], dst, (start + i) * outWidth);
+						continue;
+					}
+					for(int i = 0; i < batch; i++)
+					{
+						int off = (start + i) * inWidth;
+						blocks[i] = reader.decode(src, off, inLength - off);
+					}
+					RSA.modPowBlocks(blocks, blocks, batch, key, executor, parallelism);
+					for(int i = 0; i < batch; i++)
+						writer.encode(blocks[i], dst, (start + i) * outWidth);
+				}
+			}
+			return inSize;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package rsaencryption;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for each stage of encryption, decryption and
+ * key generation. Recording is off unless the rsa.metrics system property is
+ * true, RSA is run with -stats, or it is switched on through JMX. While off, a
+ * stage costs one volatile read; while on, it costs two System.nanoTime calls
+ * and a few uncontended LongAdder increments.
+ * Latencies go into 64 power of two buckets, so percentiles are reported as the
+ * upper bound of their bucket (within a factor of two) capped at the maximum.
+ * Published over JMX as rsaencryption:type=Metrics once first enabled.
+ * @author Ryan N May
+ */
+public final class Metrics
+{
+	public static final String OBJECT_NAME = "rsaencryption:type=Metrics";
+	private static final int BUCKETS = 64;
+	private static final StageCounters[] STAGES = new StageCounters[Stage.values().length];
+	private static volatile boolean enabled;
+
+	static
+	{
+		for(Stage stage : Stage.values())
+			STAGES[stage.ordinal()] = new StageCounters();
+		if(Boolean.getBoolean("rsa.metrics"))
+			setEnabled(true);
+	}
+
+	private Metrics() {}
+
+	/** Stages that are measured */
+	public enum Stage
+	{
+		READ_INPUT, COMPRESS, PAD, BYTES_TO_BLOCKS, PERFORM_RSA, BLOCKS_TO_BYTES, UNPAD, DECOMPRESS, WRITE_OUTPUT, GENERATE_PRIME;
+
+		/**
+		 * @return name used in the summary and over JMX (String)
+		 */
+		public String label()
+		{
+			return name().toLowerCase();
+		}
+	}
+
+	/**
+	 * @return true if stages are being recorded (boolean)
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+	/**
+	 * Switches recording on or off. Switching on registers the JMX bean.
+	 * @param on (boolean)
+	 */
+	public static void setEnabled(boolean on)
+	{
+		if(on)
+			register();
+		enabled = on;
+	}
+	/**
+	 * Call before a stage and pass the result to record when it finishes
+	 * @return start time in nanoseconds, or 0 when recording is off (long)
+	 */
+	public static long start()
+	{
+		return enabled ? System.nanoTime() : 0L;
+	}
+	/**
+	 * Records one run of a stage
+	 * @param stage
+	 * @param start value of start() before the stage, nothing is recorded if 0 (long)
+	 * @param bytes bytes handled (long)
+	 * @param blocks blocks handled (long)
+	 */
+	public static void record(Stage stage, long start, long bytes, long blocks)
+	{
+		if(start == 0L)
+			return;
+		long nanos = Math.max(0L, System.nanoTime() - start);
+		StageCounters counters = STAGES[stage.ordinal()];
+		counters.calls.increment();
+		counters.bytes.add(bytes);
+		counters.blocks.add(blocks);
+		counters.nanos.add(nanos);
+		counters.max.accumulate(nanos);
+		counters.histogram[Math.max(0, BUCKETS - 1 - Long.numberOfLeadingZeros(nanos))].increment();
+	}
+	/**
+	 * Clears every stage. The prime candidate counts of PrimeGenerator are not reset.
+	 */
+	public static void reset()
+	{
+		for(StageCounters counters : STAGES)
+			counters.reset();
+	}
+	/**
+	 * @return counters by name, e.g. perform_rsa.calls, perform_rsa.p99_ns, primes.tested (Map)
+	 */
+	public static Map<String, Long> snapshot()
+	{
+		Map<String, Long> values = new LinkedHashMap<>();
+		for(Stage stage : Stage.values())
+		{
+			StageCounters counters = STAGES[stage.ordinal()];
+			String prefix = stage.label() + ".";
+			values.put(prefix + "calls", counters.calls.sum());
+			values.put(prefix + "bytes", counters.bytes.sum());
+			values.put(prefix + "blocks", counters.blocks.sum());
+			values.put(prefix + "nanos", counters.nanos.sum());
+			values.put(prefix + "p50_ns", counters.percentile(0.50));
+			values.put(prefix + "p99_ns", counters.percentile(0.99));
+			values.put(prefix + "max_ns", counters.max.get());
+		}
+		values.put("primes.sieved", PrimeGenerator.getSievedCount());
+		values.put("primes.tested", PrimeGenerator.getTestedCount());
+		return values;
+	}
+	/**
+	 * @return snapshot as one line of JSON, stages with no calls left out (String)
+	 */
+	public static String toJson()
+	{
+		StringBuilder json = new StringBuilder("{");
+		Map<String, Long> values = snapshot();
+		for(Stage stage : Stage.values())
+		{
+			if(values.get(stage.label() + ".calls") == 0L)
+				continue;
+			json.append('"').append(stage.label()).append("\":{");
+			String prefix = stage.label() + ".";
+			boolean first = true;
+			for(Map.Entry<String, Long> entry : values.entrySet())
+			{
+				if(!entry.getKey().startsWith(prefix))
+					continue;
+				json.append(first ? "" : ",").append('"').append(entry.getKey().substring(prefix.length())).append("\":").append(entry.getValue());
+				first = false;
+			}
+			json.append("},");
+		}
+		json.append("\"primes\":{\"sieved\":").append(values.get("primes.sieved"))
+				.append(",\"tested\":").append(values.get("primes.tested")).append("}}");
+		return json.toString();
+	}
+	private static synchronized void register()
+	{
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+		} catch(InstanceAlreadyExistsException ex) {
+			// registered by an earlier call
+		} catch(JMException | SecurityException ex) {
+			// no JMX in this environment, the summary is still available
+		}
+	}
+
+	private static final class StageCounters
+	{
+		final LongAdder calls = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder blocks = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+		final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+		StageCounters()
+		{
+			for(int i = 0; i < BUCKETS; i++)
+				histogram[i] = new LongAdder();
+		}
+		/**
+		 * @return upper bound of the bucket holding the given fraction of calls, at most max, 0 if none
+		 */
+		long percentile(double fraction)
+		{
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for(int i = 0; i < BUCKETS; i++)
+				total += counts[i] = histogram[i].sum();
+			long rank = (long) Math.ceil(total * fraction);
+			for(int i = 0; i < BUCKETS && total > 0; i++)
+				if((rank -= counts[i]) <= 0)
+					return Math.min(max.get(), i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+			return 0L;
+		}
+		void reset()
+		{
+			calls.reset();
+			bytes.reset();
+			blocks.reset();
+			nanos.reset();
+			max.reset();
+			for(LongAdder bucket : histogram)
+				bucket.reset();
+		}
+	}
+
+	/** JMX view of the metrics */
+	public interface MetricsMXBean
+	{
+		boolean isEnabled();
+		void setEnabled(boolean on);
+		void reset();
+		Map<String, Long> getCounters();
+		String getJson();
+	}
+
+	private static final class Bean implements MetricsMXBean
+	{
+		@Override
+		public boolean isEnabled()
+		{
+			return Metrics.isEnabled();
+		}
+		@Override
+		public void setEnabled(boolean on)
+		{
+			Metrics.setEnabled(on);
+		}
+		@Override
+		public void reset()
+		{
+			Metrics.reset();
+		}
+		@Override
+		public Map<String, Long> getCounters()
+		{
+			return snapshot();
+		}
+		@Override
+		public String getJson()
+		{
+			return toJson();
+		}
+	}
+}
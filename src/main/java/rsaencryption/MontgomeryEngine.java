@@ -0,0 +1,201 @@
+package rsaencryption;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * This class performs modular exponentiation on primitive longs for odd
+ * moduli of up to 64 bits, without allocating. Values are unsigned 64 bit
+ * integers. Multiplication uses Montgomery reduction with R = 2^64 so no
+ * division is needed, and the high half of each 128 bit product is computed
+ * with 32 bit limbs (Math.multiplyHigh is not available on Java 8).
+ * The Montgomery constants and a sliding window schedule for the exponent
+ * are computed once per key, so each block only builds a small table of odd
+ * powers of itself and then follows the schedule.
+ * Instances are immutable apart from the per-thread table scratch and may be
+ * shared between threads.
+ * @author Ryan N May
+ */
+public final class MontgomeryEngine
+{
+	private static final long LOW_MASK = 0xFFFFFFFFL;
+	private static final BigInteger TWO_64 = BigInteger.ONE.shiftLeft(64);
+	private final long modulus;
+	private final long exponent; // unsigned
+	private final long negInverse; // -modulus^-1 mod 2^64
+	private final long rSquared; // R^2 mod modulus
+	private final long one; // R mod modulus, 1 in Montgomery form
+	private final int tableSize; // odd powers base^1, base^3, ... kept per block
+	private final int[] squarings; // squarings before each schedule step
+	private final int[] multipliers; // table index multiplied in after them, -1 for none
+	private final ThreadLocal<long[]> tables; // table for single block calls, one per thread
+
+	/**
+	 * @param exponent non-negative, at most 64 bits (BigInteger)
+	 * @param modulus odd, at most 64 bits (BigInteger)
+	 * @throws IllegalArgumentException if the key is not supported (see supports)
+	 */
+	public MontgomeryEngine(BigInteger exponent, BigInteger modulus)
+	{
+		if(!supports(exponent, modulus))
+			throw new IllegalArgumentException("Montgomery engine needs an odd modulus and exponent of at most 64 bits");
+		this.modulus = modulus.longValue();
+		this.exponent = exponent.longValue();
+		long inverse = this.modulus; // correct to 3 bits for odd moduli, doubled by each Newton step
+		for(int i = 0; i < 5; i++)
+			inverse *= 2 - this.modulus * inverse;
+		this.negInverse = -inverse;
+		this.one = TWO_64.mod(modulus).longValue();
+		this.rSquared = BigInteger.ONE.shiftLeft(128).mod(modulus).longValue();
+		int window = windowBits(exponent.bitLength());
+		this.tableSize = 1 << (window - 1);
+		this.tables = ThreadLocal.withInitial(() -> new long[tableSize]);
+		int steps = 0;
+		int[] squarings = new int[65];
+		int[] multipliers = new int[65];
+		int pending = 0;
+		for(int bit = exponent.bitLength() - 1; bit >= 0;)
+		{
+			if(!exponent.testBit(bit))
+			{
+				pending++;
+				bit--;
+				continue;
+			}
+			// Longest window of at most window bits that starts at bit and ends on a set bit
+			int low = Math.max(bit - window + 1, 0);
+			while(!exponent.testBit(low))
+				low++;
+			int value = 0;
+			for(int i = bit; i >= low; i--)
+				value = (value << 1) | (exponent.testBit(i) ? 1 : 0);
+			squarings[steps] = steps == 0 ? 0 : pending + bit - low + 1;
+			multipliers[steps++] = (value - 1) / 2;
+			pending = 0;
+			bit = low - 1;
+		}
+		if(pending > 0)
+		{
+			squarings[steps] = pending;
+			multipliers[steps++] = -1;
+		}
+		this.squarings = Arrays.copyOf(squarings, steps);
+		this.multipliers = Arrays.copyOf(multipliers, steps);
+	}
+	/**
+	 * @param exponent (BigInteger)
+	 * @param modulus (BigInteger)
+	 * @return true if the key can be applied with primitive longs (boolean)
+	 */
+	public static boolean supports(BigInteger exponent, BigInteger modulus)
+	{
+		return modulus.bitLength() <= 64 && modulus.testBit(0) && modulus.compareTo(BigInteger.ONE) > 0
+				&& exponent.signum() >= 0 && exponent.bitLength() <= 64;
+	}
+	/**
+	 * Single block calls reuse a table kept per thread, as LoadedKey.apply calls this once per block
+	 * @param base unsigned (long)
+	 * @return base^exponent mod modulus, unsigned (long)
+	 */
+	public long modPow(long base)
+	{
+		return modPow(base, tables.get());
+	}
+	/**
+	 * Applies modPow to in[from..to), storing the results at the same indices of out
+	 * @param in
+	 * @param out (may be the same array as in)
+	 * @param from
+	 * @param to
+	 */
+	public void modPow(long[] in, long[] out, int from, int to)
+	{
+		long[] table = new long[tableSize];
+		for(int i = from; i < to; i++)
+			out[i] = modPow(in[i], table);
+	}
+	/**
+	 * @return number of exponent bits per sliding window (int)
+	 */
+	public int getWindowBits()
+	{
+		return Integer.numberOfTrailingZeros(tableSize) + 1;
+	}
+	private long modPow(long base, long[] table)
+	{
+		if(squarings.length == 0)
+			return reduce(0L, one);
+		if(Long.compareUnsigned(base, modulus) >= 0)
+			base = Long.remainderUnsigned(base, modulus);
+		table[0] = multiply(base, rSquared);
+		if(tableSize > 1)
+		{
+			long squared = multiply(table[0], table[0]);
+			for(int i = 1; i < tableSize; i++)
+				table[i] = multiply(table[i - 1], squared);
+		}
+		long result = table[multipliers[0]];
+		for(int step = 1; step < squarings.length; step++)
+		{
+			for(int i = squarings[step]; i > 0; i--)
+				result = multiply(result, result);
+			if(multipliers[step] >= 0)
+				result = multiply(result, table[multipliers[step]]);
+		}
+		return reduce(0L, result);
+	}
+	/**
+	 * Window sizes follow the thresholds BigInteger.modPow uses
+	 */
+	private static int windowBits(int exponentBits)
+	{
+		if(exponentBits <= 7)
+			return 1;
+		if(exponentBits <= 25)
+			return 2;
+		return 3;
+	}
+	/**
+	 * @param value unsigned (long)
+	 * @return value as a non-negative BigInteger (BigInteger)
+	 */
+	public static BigInteger toBigInteger(long value)
+	{
+		return value >= 0 ? BigInteger.valueOf(value) : BigInteger.valueOf(value).add(TWO_64);
+	}
+	/**
+	 * @param x unsigned (long)
+	 * @param y unsigned (long)
+	 * @return the high 64 bits of the unsigned 128 bit product x * y (long)
+	 */
+	public static long unsignedMultiplyHigh(long x, long y)
+	{
+		long x0 = x & LOW_MASK, x1 = x >>> 32;
+		long y0 = y & LOW_MASK, y1 = y >>> 32;
+		long t = x1 * y0 + ((x0 * y0) >>> 32);
+		long w1 = (t & LOW_MASK) + x0 * y1;
+		return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+	}
+	/**
+	 * @return Montgomery product a * b * R^-1 mod modulus for a, b in Montgomery form
+	 */
+	private long multiply(long a, long b)
+	{
+		return reduce(unsignedMultiplyHigh(a, b), a * b);
+	}
+	/**
+	 * Montgomery reduction of the 128 bit value hi:lo, which must be below modulus * R
+	 * @return hi:lo * R^-1 mod modulus
+	 */
+	private long reduce(long hi, long lo)
+	{
+		long m = lo * negInverse;
+		long mnHigh = unsignedMultiplyHigh(m, modulus);
+		// lo + low(m * modulus) is 0 mod 2^64 and carries exactly when lo is not zero
+		long sum = hi + (lo != 0 ? 1 : 0);
+		long t = sum + mnHigh;
+		if(Long.compareUnsigned(t, sum) < 0 || Long.compareUnsigned(t, modulus) >= 0)
+			t -= modulus;
+		return t;
+	}
+}
@@ -0,0 +1,258 @@
+package rsaencryption;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * This class encrypts one payload for several public keys at once. The input is
+ * read once, and each chunk is decoded into blocks once per distinct block size
+ * among the keys; each key then only runs its modPow pass over the shared blocks
+ * and encodes its own output. The keys of a chunk are processed concurrently
+ * on the executor. Each output is byte for byte what RSA.encryptFile writes for that key.
+ * @author Ryan N May
+ */
+public final class MultiRecipient
+{
+	/** Input bytes read and decoded at a time */
+	public static final int CHUNK_BYTES = 1 << 20;
+
+	private MultiRecipient() {}
+
+	/**
+	 * Encrypts inputPath once per key, writing the result for keyFilePaths[i] to outputPaths[i]
+	 * @param inputPath
+	 * @param keyFilePaths (List)
+	 * @param outputPaths (List)
+	 * @param executor runs the keys of each chunk concurrently, or null to stay on the calling thread
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, List<String> keyFilePaths, List<String> outputPaths, Executor executor) throws IOException, ClassNotFoundException
+	{
+		if(keyFilePaths.size() != outputPaths.size())
+			throw new IllegalArgumentException("Need one output per key, got " + keyFilePaths.size() + " keys and " + outputPaths.size() + " outputs");
+		List<LoadedKey> keys = new ArrayList<>();
+		for(String keyFilePath : keyFilePaths)
+			keys.add(RSA.getKeyCache().get(keyFilePath));
+		List<OutputStream> outs = new ArrayList<>();
+		try(FileInputStream in = new FileInputStream(inputPath)) {
+			for(String outputPath : outputPaths)
+				outs.add(new BufferedOutputStream(new FileOutputStream(outputPath), 1 << 16));
+			encrypt(in, keys, outs, executor);
+			byte[] trailer = LengthTrailer.encode(in.getChannel().position());
+			for(OutputStream out : outs)
+				out.write(trailer);
+		} finally {
+			IOException failure = null;
+			for(OutputStream out : outs)
+			{
+				try {
+					out.close();
+				} catch(IOException ex) {
+					failure = failure == null ? ex : failure;
+				}
+			}
+			if(failure != null)
+				throw failure;
+		}
+	}
+	/**
+	 * Encrypts the bytes of in once per key, writing the result for keys[i] to outs[i].
+	 * The output streams are flushed but not closed.
+	 * @param in
+	 * @param keys (List)
+	 * @param outs (List)
+	 * @param executor runs the keys of each chunk concurrently, or null to stay on the calling thread
+	 * @throws IOException
+	 */
+	public static void encrypt(InputStream in, List<LoadedKey> keys, List<OutputStream> outs, Executor executor) throws IOException
+	{
+		if(keys.size() != outs.size())
+			throw new IllegalArgumentException("Need one output per key, got " + keys.size() + " keys and " + outs.size() + " outputs");
+		Map<Integer, Group> groups = new LinkedHashMap<>();
+		List<Recipient> recipients = new ArrayList<>();
+		for(int i = 0; i < keys.size(); i++)
+		{
+			BlockFormat format = keys.get(i).getBlockFormat();
+			Group group = groups.computeIfAbsent(format.getDataBytes(), Group::new);
+			Recipient recipient = new Recipient(keys.get(i), group, new BlockCodec(format.getBlockBytes(), 1), outs.get(i));
+			group.addRecipient(recipient);
+			recipients.add(recipient);
+		}
+		byte[] chunk = new byte[CHUNK_BYTES];
+		boolean last = false;
+		while(!last)
+		{
+			int length = 0;
+			int n;
+			while(length < chunk.length && (n = in.read(chunk, length, chunk.length - length)) > 0)
+				length += n;
+			last = length < chunk.length;
+			long start = Metrics.start();
+			for(Group group : groups.values())
+				group.decode(chunk, length, last);
+			Metrics.record(Metrics.Stage.BYTES_TO_BLOCKS, start, length, 0L);
+			runAll(recipients, executor);
+		}
+		for(OutputStream out : outs)
+			out.flush();
+	}
+	/**
+	 * Runs the modPow pass of every recipient over its group's current blocks
+	 */
+	private static void runAll(List<Recipient> recipients, Executor executor) throws IOException
+	{
+		if(executor == null || recipients.size() == 1)
+		{
+			for(Recipient recipient : recipients)
+				recipient.encrypt();
+			return;
+		}
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		for(Recipient recipient : recipients)
+		{
+			tasks.add(CompletableFuture.runAsync(() -> {
+				try {
+					recipient.encrypt();
+				} catch(IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}, executor));
+		}
+		try {
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+		} catch(CompletionException ex) {
+			if(ex.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) ex.getCause()).getCause();
+			if(ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw ex;
+		}
+	}
+
+	/** Blocks of one data width, decoded once per chunk and shared by the keys using that width */
+	private static final class Group
+	{
+		private final BlockCodec reader;
+		private final byte[] carry; // bytes of a block split across chunks
+		private int carried;
+		private boolean needsBlocks;
+		private boolean needsLongs;
+		private BigInteger[] blocks;
+		private long[] longs;
+		private int count;
+
+		Group(int dataBytes)
+		{
+			this.reader = new BlockCodec(dataBytes, 1);
+			this.carry = new byte[dataBytes];
+		}
+		void addRecipient(Recipient recipient)
+		{
+			if(recipient.longPath)
+				needsLongs = true;
+			else
+				needsBlocks = true;
+		}
+		/**
+		 * Decodes the whole blocks of carry plus chunk, keeping the rest for the next chunk.
+		 * On the last chunk a partial block is zero filled as in RSA.encryptFile.
+		 */
+		void decode(byte[] chunk, int length, boolean last)
+		{
+			int width = reader.getWidth();
+			int capacity = (carried + length + width - 1) / width;
+			if(needsBlocks && (blocks == null || blocks.length < capacity))
+				blocks = new BigInteger[capacity];
+			if(needsLongs && (longs == null || longs.length < capacity))
+				longs = new long[capacity];
+			count = 0;
+			int off = 0;
+			if(carried > 0)
+			{
+				int n = Math.min(width - carried, length);
+				System.arraycopy(chunk, 0, carry, carried, n);
+				carried += n;
+				off = n;
+				if(carried < width && !last)
+					return;
+				decodeBlock(carry, 0, carried);
+				carried = 0;
+			}
+			for(; length - off >= width || (last && off < length); off += width)
+				decodeBlock(chunk, off, length - off);
+			if(off < length)
+			{
+				carried = length - off;
+				System.arraycopy(chunk, off, carry, 0, carried);
+			}
+		}
+		private void decodeBlock(byte[] src, int off, int len)
+		{
+			if(needsBlocks)
+				blocks[count] = reader.decode(src, off, len);
+			if(needsLongs)
+				longs[count] = reader.decodeLong(src, off, len);
+			count++;
+		}
+	}
+
+	/** One key and its output, with buffers reused from chunk to chunk */
+	private static final class Recipient
+	{
+		private final LoadedKey key;
+		private final Group group;
+		private final BlockCodec writer;
+		private final OutputStream out;
+		private final boolean longPath;
+		private BigInteger[] blocks;
+		private long[] longs;
+		private byte[] bytes;
+
+		Recipient(LoadedKey key, Group group, BlockCodec writer, OutputStream out)
+		{
+			this.key = key;
+			this.group = group;
+			this.writer = writer;
+			this.out = out;
+			this.longPath = RSA.usesLongPath(key, group.reader, writer);
+		}
+		void encrypt() throws IOException
+		{
+			int count = group.count;
+			int width = writer.getWidth();
+			if(bytes == null || bytes.length < count * width)
+				bytes = new byte[count * width];
+			if(longPath)
+			{
+				if(longs == null || longs.length < count)
+					longs = new long[count];
+				RSA.modPowBlocks(group.longs, longs, count, key, null, 1);
+				for(int i = 0; i < count; i++)
+					writer.encodeLong(longs[i], bytes, i * width);
+			}
+			else
+			{
+				if(blocks == null || blocks.length < count)
+					blocks = new BigInteger[count];
+				RSA.modPowBlocks(group.blocks, blocks, count, key, null, 1);
+				for(int i = 0; i < count; i++)
+					writer.encode(blocks[i], bytes, i * width);
+			}
+			out.write(bytes, 0, count * width);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package rsaencryption;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * This class encrypts and decrypts streams in three overlapping stages: a reader
+ * thread cuts the input into chunks of whole blocks, workers apply the key to
+ * each chunk, and the calling thread writes the results in input order.
+ * The stages are joined by a bounded queue of pending chunks, so the reader
+ * waits when the workers or the writer fall behind and memory stays at
+ * queueDepth chunks. Throughput approaches the slowest stage rather than the
+ * sum of all three. The output is the same as RSA.encryptStream and RSA.decryptStream.
+ * @author Ryan N May
+ */
+public final class PipelinedCipher
+{
+	/** Blocks per chunk handed to a worker */
+	public static final int CHUNK_BLOCKS = BlockCodec.BATCH_BLOCKS;
+
+	private PipelinedCipher() {}
+
+	/**
+	 * Encrypts a file through the pipeline, ending it with a LengthTrailer as RSA.encryptFile does
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param workers executor for the key operations, or null to apply the key on the writing thread
+	 * @param queueDepth chunks read ahead of the writer (int)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, String outputPath, String keyFilePath, Executor workers, int queueDepth) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		try(FileInputStream in = new FileInputStream(inputPath);
+				OutputStream out = new FileOutputStream(outputPath)) {
+			encrypt(in, out, key, workers, queueDepth);
+			out.write(LengthTrailer.encode(in.getChannel().position()));
+		}
+	}
+	/**
+	 * Decrypts a file through the pipeline, trimming the output to the length in its LengthTrailer if it has one
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param workers executor for the key operations, or null to apply the key on the writing thread
+	 * @param queueDepth chunks read ahead of the writer (int)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptFile(String inputPath, String outputPath, String keyFilePath, Executor workers, int queueDepth) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = RSA.getKeyCache().get(keyFilePath);
+		try(FileInputStream in = new FileInputStream(inputPath);
+				FileOutputStream out = new FileOutputStream(outputPath)) {
+			long length = LengthTrailer.read(in.getChannel(), key.getBlockFormat());
+			decrypt(LengthTrailer.limit(in, LengthTrailer.blockBytes(in.getChannel().size(), length)), out, key, workers, queueDepth);
+			if(length >= 0)
+				out.getChannel().truncate(length);
+		}
+	}
+	/**
+	 * @param in
+	 * @param out flushed but not closed
+	 * @param key
+	 * @param workers
+	 * @param queueDepth
+	 * @throws IOException
+	 */
+	public static void encrypt(InputStream in, OutputStream out, LoadedKey key, Executor workers, int queueDepth) throws IOException
+	{
+		BlockFormat format = key.getBlockFormat();
+		transform(in, out, key, new BlockCodec(format.getDataBytes(), 1), new BlockCodec(format.getBlockBytes(), 1), workers, queueDepth);
+	}
+	/**
+	 * @param in
+	 * @param out flushed but not closed
+	 * @param key
+	 * @param workers
+	 * @param queueDepth
+	 * @throws IOException
+	 */
+	public static void decrypt(InputStream in, OutputStream out, LoadedKey key, Executor workers, int queueDepth) throws IOException
+	{
+		BlockFormat format = key.getBlockFormat();
+		transform(in, out, key, new BlockCodec(format.getBlockBytes(), 1), new BlockCodec(format.getDataBytes(), 1), workers, queueDepth);
+	}
+	private static void transform(InputStream in, OutputStream out, LoadedKey key, BlockCodec reader, BlockCodec writer, Executor workers, int queueDepth) throws IOException
+	{
+		if(queueDepth <= 0)
+			throw new IllegalArgumentException("Queue depth must be positive");
+		BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(queueDepth);
+		Thread readerThread = new Thread(() -> read(in, queue, key, reader, writer, workers), "rsa-pipeline-read");
+		readerThread.setDaemon(true);
+		readerThread.start();
+		try {
+			while(true)
+			{
+				Chunk chunk = queue.take();
+				if(chunk.failure != null)
+					rethrow(chunk.failure);
+				if(chunk.length < 0)
+					break;
+				byte[] result;
+				try {
+					result = chunk.result != null ? chunk.result.join() : ContainerFormat.transformChunk(chunk.data, chunk.length, reader, writer, key, null, 1);
+				} catch(CompletionException ex) {
+					throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+				}
+				long start = Metrics.start();
+				out.write(result);
+				Metrics.record(Metrics.Stage.WRITE_OUTPUT, start, result.length, result.length / writer.getWidth());
+			}
+			out.flush();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing");
+		} finally {
+			// Stops the reader if the writer failed; a no-op once it has finished
+			readerThread.interrupt();
+		}
+	}
+	/**
+	 * Body of the reader thread. Ends the queue with an end chunk, or a failed chunk on error.
+	 */
+	private static void read(InputStream in, BlockingQueue<Chunk> queue, LoadedKey key, BlockCodec reader, BlockCodec writer, Executor workers)
+	{
+		int chunkBytes = CHUNK_BLOCKS * reader.getWidth();
+		try {
+			while(true)
+			{
+				long start = Metrics.start();
+				byte[] data = new byte[chunkBytes];
+				int length = 0;
+				int n;
+				while(length < chunkBytes && (n = in.read(data, length, chunkBytes - length)) > 0)
+					length += n;
+				if(length == 0)
+					break;
+				Metrics.record(Metrics.Stage.READ_INPUT, start, length, (length + reader.getWidth() - 1) / reader.getWidth());
+				final int read = length;
+				CompletableFuture<byte[]> result = workers == null ? null
+						: CompletableFuture.supplyAsync(() -> ContainerFormat.transformChunk(data, read, reader, writer, key, null, 1), workers);
+				queue.put(new Chunk(data, length, result, null));
+				if(length < chunkBytes)
+					break;
+			}
+			queue.put(new Chunk(null, -1, null, null));
+		} catch(InterruptedException ex) {
+			// the writer has given up
+		} catch(Exception | Error ex) {
+			// Anything else, including a worker pool that rejects the chunk, must reach the writer or it waits forever
+			try {
+				queue.put(new Chunk(null, -1, null, ex));
+			} catch(InterruptedException stopped) {
+				// the writer has already given up
+			}
+		}
+	}
+	/**
+	 * Rethrows a failure from the reader thread on the writing thread
+	 * @param failure (Throwable)
+	 * @throws IOException
+	 */
+	private static void rethrow(Throwable failure) throws IOException
+	{
+		if(failure instanceof IOException)
+			throw (IOException) failure;
+		if(failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if(failure instanceof Error)
+			throw (Error) failure;
+		throw new IOException("Reading the input failed", failure);
+	}
+
+	/** One chunk of input and its pending result, or the end of the input */
+	private static final class Chunk
+	{
+		final byte[] data;
+		final int length; // -1 marks the end
+		final CompletableFuture<byte[]> result; // null when the writer applies the key
+		final Throwable failure;
+
+		Chunk(byte[] data, int length, CompletableFuture<byte[]> result, Throwable failure)
+		{
+			this.data = data;
+			this.length = length;
+			this.result = result;
+			this.failure = failure;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package rsaencryption;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class generates probable primes of an exact bit length.
+ * A random odd starting point is walked upwards in steps of two. Candidates
+ * divisible by a small prime are rejected using residues that are updated with
+ * int arithmetic only, and the survivors are tested with Miller-Rabin rounds.
+ * The search can run on several threads, the first prime found wins.
+ * @author Ryan N May
+ */
+public final class PrimeGenerator
+{
+	private static final int SIEVE_LIMIT = 2048;
+	private static final int[] SMALL_PRIMES = smallPrimes(SIEVE_LIMIT);
+	/** Deterministic Miller-Rabin bases for every n below 3.3 * 10^24 */
+	private static final int[] DETERMINISTIC_BASES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41};
+	private static final int DETERMINISTIC_BITS = 64;
+	/** Candidates walked from one random start before drawing a new one */
+	private static final int SEARCH_WINDOW = 1 << 16;
+	private static final LongAdder SIEVED = new LongAdder();
+	private static final LongAdder TESTED = new LongAdder();
+
+	private PrimeGenerator() {}
+
+	/**
+	 * Generates a probable prime of exactly bits bits on the calling thread
+	 * @param bits (int)
+	 * @param rand
+	 * @return prime (BigInteger)
+	 */
+	public static BigInteger generate(int bits, Random rand)
+	{
+		if(bits < 2)
+			throw new IllegalArgumentException("A prime needs at least 2 bits");
+		long start = Metrics.start();
+		BigInteger prime;
+		while((prime = search(bits, rand, null)) == null);
+		Metrics.record(Metrics.Stage.GENERATE_PRIME, start, 0L, 1L);
+		return prime;
+	}
+	/**
+	 * Generates a probable prime of exactly bits bits, searching on threads
+	 * independent starting points at once on a private fork-join pool.
+	 * @param bits (int)
+	 * @param threads (int)
+	 * @return prime (BigInteger)
+	 */
+	public static BigInteger generate(int bits, int threads)
+	{
+		if(threads <= 1)
+			return generate(bits, new SecureRandom());
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return generate(bits, pool, threads);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	/**
+	 * Generates a probable prime of exactly bits bits, running searches concurrently
+	 * on executor. Each search has its own random source; the first prime found wins
+	 * and the remaining searches stop at their next candidate.
+	 * @param bits (int)
+	 * @param executor
+	 * @param searches number of concurrent searches (int)
+	 * @return prime (BigInteger)
+	 */
+	public static BigInteger generate(int bits, Executor executor, int searches)
+	{
+		if(bits < 2)
+			throw new IllegalArgumentException("A prime needs at least 2 bits");
+		long start = Metrics.start();
+		AtomicReference<BigInteger> found = new AtomicReference<>();
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		for(int i = 0; i < searches; i++)
+		{
+			tasks.add(CompletableFuture.runAsync(() -> {
+				Random rand = new SecureRandom();
+				while(found.get() == null)
+				{
+					BigInteger prime = search(bits, rand, found);
+					if(prime != null)
+						found.compareAndSet(null, prime);
+				}
+			}, executor));
+		}
+		try {
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+		} catch(CompletionException ex) {
+			if(ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw ex;
+		}
+		Metrics.record(Metrics.Stage.GENERATE_PRIME, start, 0L, 1L);
+		return found.get();
+	}
+	/**
+	 * Trial division by the small prime table followed by Miller-Rabin.
+	 * Below 2^64 the test is deterministic; above it uses random bases.
+	 * @param n (BigInteger)
+	 * @param rand source of random bases
+	 * @return true if n is probably prime (boolean)
+	 */
+	public static boolean isProbablePrime(BigInteger n, Random rand)
+	{
+		if(n.compareTo(BigInteger.valueOf(2L)) < 0)
+			return false;
+		for(int p : SMALL_PRIMES)
+		{
+			if(n.equals(BigInteger.valueOf(p)))
+				return true;
+			if(n.mod(BigInteger.valueOf(p)).signum() == 0)
+				return false;
+		}
+		return millerRabin(n, rand);
+	}
+	/**
+	 * Number of Miller-Rabin rounds used for random candidates of the given size.
+	 * Error rates follow FIPS 186-4 table C.2 for randomly chosen candidates.
+	 * @param bits (int)
+	 * @return rounds (int)
+	 */
+	public static int rounds(int bits)
+	{
+		if(bits >= 2048)
+			return 3;
+		if(bits >= 1024)
+			return 5;
+		if(bits >= 512)
+			return 7;
+		if(bits >= 256)
+			return 10;
+		return 20;
+	}
+	/**
+	 * @return candidates rejected by the small prime sieve since start up (long)
+	 */
+	public static long getSievedCount()
+	{
+		return SIEVED.sum();
+	}
+	/**
+	 * @return candidates that reached Miller-Rabin since start up (long)
+	 */
+	public static long getTestedCount()
+	{
+		return TESTED.sum();
+	}
+	/**
+	 * Walks SEARCH_WINDOW odd candidates up from a random start.
+	 * @return a prime, or null if the window was exhausted or another search finished
+	 */
+	private static BigInteger search(int bits, Random rand, AtomicReference<BigInteger> found)
+	{
+		BigInteger start = new BigInteger(bits, rand).setBit(bits - 1).setBit(0);
+		// A prime may itself be in the table, so only sieve by primes below the smallest candidate
+		int sieveCount = 0;
+		while(sieveCount < SMALL_PRIMES.length && (bits > 31 || SMALL_PRIMES[sieveCount] < (1L << (bits - 1))))
+			sieveCount++;
+		int[] residues = new int[sieveCount];
+		for(int i = 0; i < sieveCount; i++)
+			residues[i] = start.mod(BigInteger.valueOf(SMALL_PRIMES[i])).intValue();
+		for(int delta = 0; delta < SEARCH_WINDOW; delta += 2)
+		{
+			if(found != null && found.get() != null)
+				return null;
+			boolean composite = false;
+			for(int i = 0; i < sieveCount && !composite; i++)
+				composite = (residues[i] + delta) % SMALL_PRIMES[i] == 0;
+			if(composite)
+			{
+				SIEVED.increment();
+				continue;
+			}
+			BigInteger candidate = start.add(BigInteger.valueOf(delta));
+			if(candidate.bitLength() != bits)
+				return null;
+			TESTED.increment();
+			if(millerRabin(candidate, rand))
+				return candidate;
+		}
+		return null;
+	}
+	private static boolean millerRabin(BigInteger n, Random rand)
+	{
+		if(n.equals(BigInteger.valueOf(2L)) || n.equals(BigInteger.valueOf(3L)))
+			return true;
+		if(!n.testBit(0))
+			return false;
+		BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+		int s = nMinusOne.getLowestSetBit();
+		BigInteger d = nMinusOne.shiftRight(s);
+		int bits = n.bitLength();
+		if(bits <= DETERMINISTIC_BITS)
+		{
+			for(int base : DETERMINISTIC_BASES)
+			{
+				BigInteger a = BigInteger.valueOf(base);
+				if(a.compareTo(nMinusOne) >= 0)
+					break;
+				if(!millerRabinRound(n, nMinusOne, d, s, a))
+					return false;
+			}
+			return true;
+		}
+		for(int round = rounds(bits); round > 0; round--)
+		{
+			BigInteger a;
+			do {
+				a = new BigInteger(bits, rand);
+			}while(a.compareTo(BigInteger.ONE) <= 0 || a.compareTo(nMinusOne) >= 0);
+			if(!millerRabinRound(n, nMinusOne, d, s, a))
+				return false;
+		}
+		return true;
+	}
+	private static boolean millerRabinRound(BigInteger n, BigInteger nMinusOne, BigInteger d, int s, BigInteger a)
+	{
+		BigInteger x = a.modPow(d, n);
+		if(x.equals(BigInteger.ONE) || x.equals(nMinusOne))
+			return true;
+		for(int r = 1; r < s; r++)
+		{
+			x = x.multiply(x).mod(n);
+			if(x.equals(nMinusOne))
+				return true;
+			if(x.equals(BigInteger.ONE))
+				return false;
+		}
+		return false;
+	}
+	private static int[] smallPrimes(int limit)
+	{
+		boolean[] composite = new boolean[limit];
+		int count = 0;
+		for(int i = 2; i < limit; i++)
+		{
+			if(composite[i])
+				continue;
+			count++;
+			for(int j = i * i; j < limit; j += i)
+				composite[j] = true;
+		}
+		int[] primes = new int[count];
+		for(int i = 2, k = 0; i < limit; i++)
+			if(!composite[i])
+				primes[k++] = i;
+		return primes;
+	}
+}
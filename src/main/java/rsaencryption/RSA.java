@@ -1,47 +1,188 @@
 package rsaencryption;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 /**
  * Binary RSA encryption of files in JAVA
  * @author Ryan N May
  */
 public class RSA 
 {
-	private static final int LONG_BYTE_DIVISION = 8;
+	/** Block count below which performRSA stays sequential */
+	public static final int PARALLEL_THRESHOLD = 1024;
+	/** Number of keys kept by the shared key cache */
+	public static final int CACHED_KEYS = 64;
+	/** Bytes a directory batch may buffer at once unless -mem is given */
+	public static final long DEFAULT_BATCH_MEMORY = 256L << 20;
+	private static final KeyCache KEY_CACHE = new KeyCache(CACHED_KEYS);
 	public static void main(String[] argvs)
-	{	// argvs = {-e/-d public/privateKey.ser, input.txt, output.txt}
+	{	// argvs = {[-p threads], [-mem megabytes], [-stats], [-legacy | -m | -resume | -hybrid | -c [-z] [-r offset length | -n chunk]], -e/-d public/privateKey.ser, input.txt/dir, output.txt/dir}
+		if(argvs.length > 0 && argvs[0].equals("-daemon"))
+		{	// argvs = {-daemon, [-port n], [-t threads]}
+			RSADaemon.main(Arrays.copyOfRange(argvs, 1, argvs.length));
+			return;
+		}
+		ExecutorService pool = null;
 		try {
-			if(argvs.length == 4)
+			int parallelism = 1;
+			boolean mapped = false;
+			boolean container = false;
+			boolean hybrid = false;
+			boolean resume = false;
+			boolean legacy = false;
+			int flags = 0;
+			long offset = 0L;
+			long length = Long.MAX_VALUE;
+			int chunk = -1;
+			long memory = DEFAULT_BATCH_MEMORY;
+			int arg = 0;
+			while(argvs.length - arg > 4)
+			{
+				if(argvs[arg].equals("-p"))
+				{
+					parallelism = Integer.parseInt(argvs[arg+1]);
+					arg += 2;
+				}
+				else if(argvs[arg].equals("-mem"))
+				{
+					memory = Long.parseLong(argvs[arg+1]) << 20;
+					arg += 2;
+				}
+				else if(argvs[arg].equals("-stats"))
+				{
+					Metrics.setEnabled(true);
+					arg++;
+				}
+				else if(argvs[arg].equals("-legacy"))
+				{	// 4 data bytes per 8 byte block, as written by the original padBytes pipeline
+					legacy = true;
+					arg++;
+				}
+				else if(argvs[arg].equals("-m"))
+				{
+					mapped = true;
+					arg++;
+				}
+				else if(argvs[arg].equals("-resume"))
+				{
+					resume = true;
+					arg++;
+				}
+				else if(argvs[arg].equals("-hybrid"))
+				{
+					hybrid = true;
+					arg++;
+				}
+				else if(argvs[arg].equals("-c"))
+				{
+					container = true;
+					arg++;
+				}
+				else if(argvs[arg].equals("-z"))
+				{	// compression needs the container header to record it
+					container = true;
+					flags |= ContainerFormat.FLAG_DEFLATE;
+					arg++;
+				}
+				else if(argvs[arg].equals("-r"))
+				{
+					offset = Long.parseLong(argvs[arg+1]);
+					length = Long.parseLong(argvs[arg+2]);
+					arg += 3;
+				}
+				else if(argvs[arg].equals("-n"))
+				{
+					chunk = Integer.parseInt(argvs[arg+1]);
+					arg += 2;
+				}
+				else
+					break;
+			}
+			if(argvs.length - arg == 4 && Files.isDirectory(Paths.get(argvs[arg+2])))
+			{
+				int threads = parallelism > 1 ? parallelism : Runtime.getRuntime().availableProcessors();
+				BatchEncryptor.Report report = BatchEncryptor.run(Paths.get(argvs[arg+2]), Paths.get(argvs[arg+3]), argvs[arg+1], argvs[arg].equals("-e"), threads, memory);
+				for(String failure : report.getFailures())
+					System.out.println("Failed: " + failure);
+				System.out.println(report);
+			}
+			else if(argvs.length - arg == 4)
 			{
-				byte[] fileBytes = readInput(argvs[2]); // padding
-				if(argvs[0] == "-e")
+				if(parallelism > 1)
+					pool = new ForkJoinPool(parallelism);
+				String key = argvs[arg+1], input = argvs[arg+2], output = argvs[arg+3];
+				if(argvs[arg].equals("-e"))
 				{
-					fileBytes = padBytes(fileBytes);
-					BigInteger[] fileData = bytesToLongs(fileBytes);
-					BigInteger[] encrypted = performRSA(fileData, argvs[1]);
-					fileBytes = longsToBytes(encrypted);
-					writeOutput(argvs[3], fileBytes);
+					if(key.indexOf(',') >= 0)
+						MultiRecipient.encryptFile(input, Arrays.asList(key.split(",")), Arrays.asList(output.split(",")), pool);
+					else if(hybrid)
+						HybridCipher.encryptFile(input, output, key);
+					else if(resume)
+						reportResume(ResumableCipher.encryptFile(input, output, key, pool, parallelism));
+					else if(container)
+						ContainerWriter.encryptFile(input, output, key, 0, flags, pool, parallelism);
+					else if(legacy)
+						encryptLegacyFile(input, output, key, pool, parallelism);
+					else if(mapped)
+						MappedFileCipher.encrypt(input, output, key, pool, parallelism);
+					else
+						PipelinedCipher.encryptFile(input, output, key, pool, 2 * Math.max(1, parallelism));
 				}
-				if(argvs[0] == "-d")
+				if(argvs[arg].equals("-d"))
 				{
-					BigInteger[] fileData = bytesToLongs(fileBytes);
-					BigInteger[] decrypted = performRSA(fileData, argvs[1]);
-					fileBytes = longsToBytes(decrypted);
-					fileBytes = unpadBytes(fileBytes);
-					writeOutput(argvs[3], fileBytes);
-				}	
+					if(hybrid)
+						HybridCipher.decryptFile(input, output, key);
+					else if(resume)
+						reportResume(ResumableCipher.decryptFile(input, output, key, pool, parallelism));
+					else if(container && chunk >= 0)
+						ContainerReader.decryptChunk(input, output, key, chunk);
+					else if(container)
+						ContainerReader.decryptRange(input, output, key, offset, length, pool, parallelism);
+					else if(legacy)
+						decryptLegacyFile(input, output, key, pool, parallelism);
+					else if(mapped)
+						MappedFileCipher.decrypt(input, output, key, pool, parallelism);
+					else
+						PipelinedCipher.decryptFile(input, output, key, pool, 2 * Math.max(1, parallelism));
+				}
 			}
 			else
-				System.out.println("Correct use of RSA: RSA key.ser input.file output.file");
+				System.out.println("Correct use of RSA: RSA [-p threads] [-mem megabytes] [-stats] [-legacy | -m | -resume | -hybrid | -c [-z] [-r offset length | -n chunk]] -e/-d key.ser[,key.ser...] input.file output.file[,output.file...] | RSA -daemon [-port n] [-t threads]");
+			if(Metrics.isEnabled())
+				System.out.println(Metrics.toJson());
 		}catch(Exception ex) {
 			System.out.println("An error occured in the execution of RSA: \n" + ex.getMessage());
+		}finally {
+			if(pool != null)
+				pool.shutdown();
 		}
 	}
+	private static void reportResume(long offset)
+	{
+		if(offset > 0)
+			System.out.println("Resumed from input byte " + offset);
+	}
 	/**
 	 * This method performs RSA encryption and decryption
 	 * @param data_in (long [])
@@ -52,13 +193,488 @@ public class RSA
 	 */
 	public static BigInteger[] performRSA(BigInteger[] data_in, String keyFilePath) throws ClassNotFoundException, IOException
 	{
-		BigInteger[] data_out = new BigInteger[data_in.length];
-		BigInteger[] key = readSerialisedKey(keyFilePath);
-		for(int i = 0; i < data_in.length; i++) {
-			data_out[i] = data_in[i].modPow(key[0], key[1]);
+		return performRSA(data_in, keyFilePath, null, 1);
+	}
+	/**
+	 * This method performs RSA encryption and decryption on a private fork-join pool
+	 * of the given parallelism. Inputs shorter than PARALLEL_THRESHOLD blocks run sequentially.
+	 * @param data_in
+	 * @param keyFilePath
+	 * @param parallelism number of worker threads (int)
+	 * @return data_out
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	public static BigInteger[] performRSA(BigInteger[] data_in, String keyFilePath, int parallelism) throws ClassNotFoundException, IOException
+	{
+		if(parallelism <= 1 || data_in.length < PARALLEL_THRESHOLD)
+			return performRSA(data_in, keyFilePath, null, 1);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return performRSA(data_in, keyFilePath, pool, parallelism);
+		} finally {
+			pool.shutdown();
 		}
+	}
+	/**
+	 * This method performs RSA encryption and decryption, splitting the blocks into
+	 * parallelism contiguous chunks run on executor. Output order matches input order.
+	 * @param data_in
+	 * @param keyFilePath
+	 * @param executor executor to run chunks on, or null to run sequentially
+	 * @param parallelism number of chunks to split the blocks into (int)
+	 * @return data_out
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	public static BigInteger[] performRSA(BigInteger[] data_in, String keyFilePath, Executor executor, int parallelism) throws ClassNotFoundException, IOException
+	{
+		return performRSA(data_in, KEY_CACHE.get(keyFilePath), executor, parallelism);
+	}
+	/**
+	 * This method performs RSA encryption and decryption with an already loaded key
+	 * @param data_in
+	 * @param key
+	 * @return data_out
+	 */
+	public static BigInteger[] performRSA(BigInteger[] data_in, LoadedKey key)
+	{
+		return performRSA(data_in, key, null, 1);
+	}
+	/**
+	 * As performRSA(data_in, keyFilePath, executor, parallelism) with an already loaded key
+	 * @param data_in
+	 * @param key
+	 * @param executor executor to run chunks on, or null to run sequentially
+	 * @param parallelism number of chunks to split the blocks into (int)
+	 * @return data_out
+	 */
+	public static BigInteger[] performRSA(BigInteger[] data_in, LoadedKey key, Executor executor, int parallelism)
+	{
+		BigInteger[] data_out = new BigInteger[data_in.length];
+		modPowBlocks(data_in, data_out, data_in.length, key, executor, parallelism);
 		return data_out;
 	}
+	/**
+	 * Performs the RSA operation on blocks held as unsigned longs, without allocating per block.
+	 * Only keys whose modulus fits in a long are supported (see LoadedKey.usesLongPath).
+	 * @param data_in (long[])
+	 * @param key
+	 * @return data_out (long[])
+	 */
+	public static long[] performRSA(long[] data_in, LoadedKey key)
+	{
+		return performRSA(data_in, key, null, 1);
+	}
+	/**
+	 * As performRSA on longs, split across executor as for BigInteger blocks
+	 * @param data_in (long[])
+	 * @param key
+	 * @param executor
+	 * @param parallelism
+	 * @return data_out (long[])
+	 */
+	public static long[] performRSA(long[] data_in, LoadedKey key, Executor executor, int parallelism)
+	{
+		long[] data_out = new long[data_in.length];
+		modPowBlocks(data_in, data_out, data_in.length, key, executor, parallelism);
+		return data_out;
+	}
+	/**
+	 * Applies the key to the first count blocks of in, storing the results in out.
+	 * @param in
+	 * @param out (may be the same array as in)
+	 * @param count
+	 * @param key
+	 * @param executor
+	 * @param parallelism
+	 */
+	static void modPowBlocks(BigInteger[] in, BigInteger[] out, int count, LoadedKey key, Executor executor, int parallelism)
+	{
+		long start = Metrics.start();
+		runRanges(count, executor, parallelism, (from, to) -> {
+			for(int i = from; i < to; i++)
+				out[i] = key.apply(in[i]);
+		});
+		Metrics.record(Metrics.Stage.PERFORM_RSA, start, 0L, count);
+	}
+	/**
+	 * As modPowBlocks for blocks held as unsigned longs
+	 */
+	static void modPowBlocks(long[] in, long[] out, int count, LoadedKey key, Executor executor, int parallelism)
+	{
+		long start = Metrics.start();
+		runRanges(count, executor, parallelism, (from, to) -> key.apply(in, out, from, to));
+		Metrics.record(Metrics.Stage.PERFORM_RSA, start, 0L, count);
+	}
+	/**
+	 * Runs task over [0, count), split into parallelism ranges on executor unless count is small
+	 */
+	private static void runRanges(int count, Executor executor, int parallelism, RangeTask task)
+	{
+		if(executor == null || parallelism <= 1 || count < PARALLEL_THRESHOLD)
+		{
+			task.run(0, count);
+			return;
+		}
+		int chunk = (count + parallelism - 1) / parallelism;
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		for(int start = 0; start < count; start += chunk)
+		{
+			final int from = start;
+			final int to = Math.min(count, start + chunk);
+			tasks.add(CompletableFuture.runAsync(() -> task.run(from, to), executor));
+		}
+		try {
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+		} catch(CompletionException ex) {
+			if(ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw ex;
+		}
+	}
+	private interface RangeTask
+	{
+		void run(int from, int to);
+	}
+	/**
+	 * Encrypts a file block by block. Only one batch of blocks is held in memory at a time.
+	 * The file ends with a LengthTrailer so decryptFile restores the exact length.
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, String outputPath, String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		encryptFile(inputPath, outputPath, keyFilePath, null, 1);
+	}
+	/**
+	 * As encryptFile, running each batch of blocks across executor (see performRSA).
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		try(FileInputStream in = new FileInputStream(inputPath);
+				OutputStream out = new FileOutputStream(outputPath)) {
+			encryptStream(in, out, keyFilePath, executor, parallelism);
+			out.write(LengthTrailer.encode(in.getChannel().position()));
+		}
+	}
+	/**
+	 * As encryptFile with an explicit block format, such as BlockFormat.LEGACY.
+	 * Only the blocks are written, without a LengthTrailer.
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param format
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptFile(String inputPath, String outputPath, String keyFilePath, BlockFormat format, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		try(InputStream in = new FileInputStream(inputPath);
+				OutputStream out = new FileOutputStream(outputPath)) {
+			encryptStream(in, out, KEY_CACHE.get(keyFilePath), format, executor, parallelism);
+		}
+	}
+	/**
+	 * Decrypts a file block by block. Only one batch of blocks is held in memory at a time.
+	 * If the file ends with a LengthTrailer the output is trimmed to the recorded length.
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptFile(String inputPath, String outputPath, String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		decryptFile(inputPath, outputPath, keyFilePath, null, 1);
+	}
+	/**
+	 * As decryptFile, running each batch of blocks across executor (see performRSA).
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptFile(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		LoadedKey key = KEY_CACHE.get(keyFilePath);
+		try(FileInputStream in = new FileInputStream(inputPath);
+				FileOutputStream out = new FileOutputStream(outputPath)) {
+			long length = LengthTrailer.read(in.getChannel(), key.getBlockFormat());
+			long blockBytes = LengthTrailer.blockBytes(in.getChannel().size(), length);
+			decryptStream(LengthTrailer.limit(in, blockBytes), out, key, executor, parallelism);
+			if(length >= 0)
+				out.getChannel().truncate(length);
+		}
+	}
+	/**
+	 * As decryptFile with an explicit block format, such as BlockFormat.LEGACY.
+	 * The whole file is read as blocks.
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param format
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptFile(String inputPath, String outputPath, String keyFilePath, BlockFormat format, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		try(InputStream in = new FileInputStream(inputPath);
+				OutputStream out = new FileOutputStream(outputPath)) {
+			decryptStream(in, out, KEY_CACHE.get(keyFilePath), format, executor, parallelism);
+		}
+	}
+	/**
+	 * Encrypts a file in the layout of earlier versions: 4 plaintext bytes in each
+	 * 8 byte block and the blocks in reverse order, as the original longsToBytes
+	 * prepended each block. Blocks are written in order and then swapped in place,
+	 * so memory stays at one batch of blocks.
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptLegacyFile(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		encryptFile(inputPath, outputPath, keyFilePath, BlockFormat.LEGACY, executor, parallelism);
+		reverseBlocks(outputPath, BlockFormat.LEGACY.getBlockBytes());
+	}
+	/**
+	 * Decrypts a file written by encryptLegacyFile or an earlier version. Blocks are
+	 * independent, so they are decrypted in file order and the 4 byte groups of
+	 * plaintext are put back in order afterwards. The layout records no length and
+	 * the zero fill of the final block is kept, as it was originally.
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptLegacyFile(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		decryptFile(inputPath, outputPath, keyFilePath, BlockFormat.LEGACY, executor, parallelism);
+		reverseBlocks(outputPath, BlockFormat.LEGACY.getDataBytes());
+	}
+	/**
+	 * Reverses the order of the width byte units of a file in place, a batch from each end at a time
+	 */
+	private static void reverseBlocks(String path, int width) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			int batch = Math.max(1, (64 << 10) / width);
+			long low = 0;
+			long high = channel.size() / width;
+			while(high - low > 1)
+			{
+				int count = (int) Math.min(batch, (high - low) / 2);
+				byte[] head = readUnits(channel, low * width, count * width);
+				byte[] tail = readUnits(channel, (high - count) * width, count * width);
+				writeUnits(channel, reverseUnits(tail, width), low * width);
+				writeUnits(channel, reverseUnits(head, width), (high - count) * width);
+				low += count;
+				high -= count;
+			}
+		}
+	}
+	private static byte[] readUnits(FileChannel channel, long at, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining())
+			if(channel.read(buffer, at + buffer.position()) < 0)
+				throw new IOException("File shrank while it was reordered");
+		return buffer.array();
+	}
+	private static void writeUnits(FileChannel channel, byte[] units, long at) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(units);
+		while(buffer.hasRemaining())
+			at += channel.write(buffer, at);
+	}
+	private static byte[] reverseUnits(byte[] units, int width)
+	{
+		byte[] reversed = new byte[units.length];
+		int count = units.length / width;
+		for(int i = 0; i < count; i++)
+			System.arraycopy(units, i * width, reversed, (count - 1 - i) * width, width);
+		return reversed;
+	}
+	/**
+	 * Streaming equivalent of padBytes, bytesToLongs, performRSA and longsToBytes.
+	 * The block format is derived from the key modulus (see BlockFormat.forModulus).
+	 * @param in
+	 * @param out
+	 * @param keyFilePath
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptStream(InputStream in, OutputStream out, String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		encryptStream(in, out, keyFilePath, null, 1);
+	}
+	/**
+	 * As encryptStream, running each batch of blocks across executor (see performRSA).
+	 * @param in
+	 * @param out
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void encryptStream(InputStream in, OutputStream out, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		encryptStream(in, out, KEY_CACHE.get(keyFilePath), executor, parallelism);
+	}
+	/**
+	 * As encryptStream with an already loaded key
+	 * @param in
+	 * @param out
+	 * @param key
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public static void encryptStream(InputStream in, OutputStream out, LoadedKey key, Executor executor, int parallelism) throws IOException
+	{
+		encryptStream(in, out, key, key.getBlockFormat(), executor, parallelism);
+	}
+	/**
+	 * As encryptStream with an explicit block format, such as BlockFormat.LEGACY
+	 * @param in
+	 * @param out
+	 * @param key
+	 * @param format
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public static void encryptStream(InputStream in, OutputStream out, LoadedKey key, BlockFormat format, Executor executor, int parallelism) throws IOException
+	{
+		checkFormat(key, format);
+		transformStream(in, out, key, new BlockCodec(format.getDataBytes()), new BlockCodec(format.getBlockBytes()), executor, parallelism);
+	}
+	/**
+	 * Streaming equivalent of bytesToLongs, performRSA, longsToBytes and unpadBytes.
+	 * The block format is derived from the key modulus (see BlockFormat.forModulus).
+	 * @param in
+	 * @param out
+	 * @param keyFilePath
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptStream(InputStream in, OutputStream out, String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		decryptStream(in, out, keyFilePath, null, 1);
+	}
+	/**
+	 * As decryptStream, running each batch of blocks across executor (see performRSA).
+	 * @param in
+	 * @param out
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void decryptStream(InputStream in, OutputStream out, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		decryptStream(in, out, KEY_CACHE.get(keyFilePath), executor, parallelism);
+	}
+	/**
+	 * As decryptStream with an already loaded key
+	 * @param in
+	 * @param out
+	 * @param key
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public static void decryptStream(InputStream in, OutputStream out, LoadedKey key, Executor executor, int parallelism) throws IOException
+	{
+		decryptStream(in, out, key, key.getBlockFormat(), executor, parallelism);
+	}
+	/**
+	 * As decryptStream with an explicit block format, such as BlockFormat.LEGACY
+	 * @param in
+	 * @param out
+	 * @param key
+	 * @param format
+	 * @param executor
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	public static void decryptStream(InputStream in, OutputStream out, LoadedKey key, BlockFormat format, Executor executor, int parallelism) throws IOException
+	{
+		checkFormat(key, format);
+		transformStream(in, out, key, new BlockCodec(format.getBlockBytes()), new BlockCodec(format.getDataBytes()), executor, parallelism);
+	}
+	private static void checkFormat(LoadedKey key, BlockFormat format)
+	{
+		if(!format.fits(key.getModulus()))
+			throw new IllegalArgumentException("Block format " + format + " does not fit a " + key.getModulus().bitLength() + " bit modulus");
+	}
+	private static void transformStream(InputStream in, OutputStream out, LoadedKey key, BlockCodec reader, BlockCodec writer, Executor executor, int parallelism) throws IOException
+	{
+		if(usesLongPath(key, reader, writer))
+		{
+			long[] longs = new long[reader.getBatchBlocks()];
+			int count;
+			long start = Metrics.start();
+			while((count = reader.read(in, longs)) > 0)
+			{
+				Metrics.record(Metrics.Stage.READ_INPUT, start, (long) count * reader.getWidth(), count);
+				modPowBlocks(longs, longs, count, key, executor, parallelism);
+				start = Metrics.start();
+				writer.write(longs, count, out);
+				Metrics.record(Metrics.Stage.WRITE_OUTPUT, start, (long) count * writer.getWidth(), count);
+				start = Metrics.start();
+			}
+			out.flush();
+			return;
+		}
+		BigInteger[] blocks = new BigInteger[reader.getBatchBlocks()];
+		int count;
+		long start = Metrics.start();
+		while((count = reader.read(in, blocks)) > 0)
+		{
+			Metrics.record(Metrics.Stage.READ_INPUT, start, (long) count * reader.getWidth(), count);
+			modPowBlocks(blocks, blocks, count, key, executor, parallelism);
+			start = Metrics.start();
+			writer.write(blocks, count, out);
+			Metrics.record(Metrics.Stage.WRITE_OUTPUT, start, (long) count * writer.getWidth(), count);
+			start = Metrics.start();
+		}
+		out.flush();
+	}
+	/**
+	 * @return true if blocks of both codecs fit in a long and key can be applied to longs
+	 */
+	static boolean usesLongPath(LoadedKey key, BlockCodec reader, BlockCodec writer)
+	{
+		return key.usesLongPath() && reader.getWidth() <= 8 && writer.getWidth() <= 8;
+	}
 	/**
 	 * This method reads the serialised key class and extracts the two key elements from the class structure.
 	 * @param keyFilePath
@@ -68,33 +684,103 @@ public class RSA
 	 */
 	public static BigInteger[] readSerialisedKey(String keyFilePath) throws IOException, ClassNotFoundException
 	{
-		FileInputStream keyFileIn = new FileInputStream(keyFilePath);
-		ObjectInputStream keyObjectIn = new ObjectInputStream(keyFileIn);
-		Key key = (Key) keyObjectIn.readObject();
-		keyFileIn.close();
-		keyObjectIn.close();
+		Key key = readKeyObject(keyFilePath);
 		BigInteger[] ret = {key.element1, key.element2};
 		return ret;
 	}
 	/**
-	 * padBytes pads every 4 bytes with 4 blank bytes to prevent RSA long overflow
+	 * Loads a key file into a reusable key handle. Unlike the keyFilePath overloads
+	 * this always reads the file; keep the returned handle or use getKeyCache().
+	 * @param keyFilePath
+	 * @return key (LoadedKey)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static LoadedKey loadKey(String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		return new LoadedKey(readKeyObject(keyFilePath));
+	}
+	/**
+	 * @return the cache used by every method that takes a keyFilePath (KeyCache)
+	 */
+	public static KeyCache getKeyCache()
+	{
+		return KEY_CACHE;
+	}
+	/**
+	 * Reads a key file in either the binary KeyFormat or the serialised Key format.
+	 * The file is read with a single read; serialised keys may only contain Key and BigInteger.
+	 * @param keyFilePath
+	 * @return key (Key)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	static Key readKeyObject(String keyFilePath) throws IOException, ClassNotFoundException
+	{
+		byte[] keyFile = KeyFormat.readFully(Paths.get(keyFilePath));
+		if(KeyFormat.isBinaryKey(keyFile))
+			return KeyFormat.decode(ByteBuffer.wrap(keyFile));
+		try(ObjectInputStream keyObjectIn = new ObjectInputStream(new ByteArrayInputStream(keyFile)) {
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+			{
+				String name = desc.getName();
+				if(!name.equals(Key.class.getName()) && !name.equals(BigInteger.class.getName())
+						&& !name.equals(Number.class.getName()) && !name.equals(byte[].class.getName()))
+					throw new InvalidClassException(name, "Unexpected class in serialised key");
+				return super.resolveClass(desc);
+			}
+		}) {
+			return (Key) keyObjectIn.readObject();
+		}
+	}
+	/**
+	 * padBytes pads every 4 bytes with 4 blank bytes to prevent RSA long overflow.
+	 * The output is sized up front and filled in a single pass.
 	 * @param in
 	 * @return
 	 */
 	public static byte[] padBytes(byte[] in)
 	{
-		byte[] padding = new byte[LONG_BYTE_DIVISION/2];
-		byte[] out = in;
-        for (int i = 0; i < padding.length; i++) 
-            padding[i] = 0;
-        for(int i = 0; i < out.length; i+=8)
-		{
-			byte[] LHS = sliceBytes(out, 0, i);
-			byte[] RHS = sliceBytes(out, i, out.length);
-			LHS = combineBytes(LHS, padding);
-			out = combineBytes(LHS, RHS);
-		}
-		return out;
+		return padBytes(in, BlockFormat.LEGACY);
+	}
+	/**
+	 * Pads every format.getDataBytes() bytes up to a full format.getBlockBytes() block
+	 * @param in
+	 * @param format
+	 * @return
+	 */
+	public static byte[] padBytes(byte[] in, BlockFormat format)
+	{
+		long start = Metrics.start();
+		ByteBuffer out = ByteBuffer.allocate(format.paddedLength(in.length));
+		format.pad(in, 0, in.length, out);
+		Metrics.record(Metrics.Stage.PAD, start, in.length, out.capacity() / format.getBlockBytes());
+		return out.array();
+	}
+	/**
+	 * Pads len bytes of in, starting at off, into the caller supplied buffer.
+	 * The buffer must have at least paddedLength(len) bytes remaining.
+	 * @param in
+	 * @param off
+	 * @param len
+	 * @param out
+	 * @throws java.nio.BufferOverflowException if out is too small
+	 */
+	public static void padBytes(byte[] in, int off, int len, ByteBuffer out)
+	{
+		long start = Metrics.start();
+		BlockFormat.LEGACY.pad(in, off, len, out);
+		Metrics.record(Metrics.Stage.PAD, start, len, BlockFormat.LEGACY.paddedLength(len) / BlockFormat.LEGACY.getBlockBytes());
+	}
+	/**
+	 * Number of bytes padBytes produces for an input of the given length
+	 * @param length
+	 * @return
+	 */
+	public static int paddedLength(int length)
+	{
+		return BlockFormat.LEGACY.paddedLength(length);
 	}
 	/**
 	 * Undoes the work of padBytes
@@ -103,17 +789,45 @@ public class RSA
 	 */
 	public static byte[] unpadBytes(byte[] in)
 	{
-		byte[] padding = new byte[LONG_BYTE_DIVISION/2];
-		byte[] out = in;
-        for (int i = 0; i < padding.length; i++) 
-            padding[i] = 0;
-        for(int i = 0; i < out.length; i+=4)
-		{
-			byte[] LHS = sliceBytes(out, 0, i);
-			byte[] RHS = sliceBytes(out, i+4, out.length);
-			out = combineBytes(LHS, RHS);
-		}
-		return out;
+		return unpadBytes(in, BlockFormat.LEGACY);
+	}
+	/**
+	 * Undoes the work of padBytes(in, format)
+	 * @param in
+	 * @param format
+	 * @return
+	 */
+	public static byte[] unpadBytes(byte[] in, BlockFormat format)
+	{
+		long start = Metrics.start();
+		ByteBuffer out = ByteBuffer.allocate(format.unpaddedLength(in.length));
+		format.unpad(in, 0, in.length, out);
+		Metrics.record(Metrics.Stage.UNPAD, start, in.length, in.length / format.getBlockBytes());
+		return out.array();
+	}
+	/**
+	 * Unpads len bytes of in, starting at off, into the caller supplied buffer.
+	 * The buffer must have at least unpaddedLength(len) bytes remaining.
+	 * @param in
+	 * @param off
+	 * @param len
+	 * @param out
+	 * @throws java.nio.BufferOverflowException if out is too small
+	 */
+	public static void unpadBytes(byte[] in, int off, int len, ByteBuffer out)
+	{
+		long start = Metrics.start();
+		BlockFormat.LEGACY.unpad(in, off, len, out);
+		Metrics.record(Metrics.Stage.UNPAD, start, len, len / BlockFormat.LEGACY.getBlockBytes());
+	}
+	/**
+	 * Number of bytes unpadBytes produces for an input of the given length
+	 * @param length
+	 * @return
+	 */
+	public static int unpaddedLength(int length)
+	{
+		return BlockFormat.LEGACY.unpaddedLength(length);
 	}
 	/**
 	 * WriteOutputFile operates by converting a long array into a byte array. 
@@ -124,10 +838,12 @@ public class RSA
 	 */
 	public static void writeOutput(String filePath, byte[] outputData) throws IOException
 	{
+		long start = Metrics.start();
 		File outputFile = new File(filePath);
 		FileOutputStream outputFileStream = new FileOutputStream(outputFile);       
         outputFileStream.write(outputData);
         outputFileStream.close();
+		Metrics.record(Metrics.Stage.WRITE_OUTPUT, start, outputData.length, 0L);
 	}
 	/**
 	 * ReadInputFile operates by reading a file of bytes, and concatenating them into an array of longs.
@@ -138,9 +854,11 @@ public class RSA
 	 */
 	public static byte[] readInput(String filePath) throws IOException
 	{
+		long start = Metrics.start();
 		File inputFile = new File(filePath);
 		byte[] bytes = new byte[(int) inputFile.length()];
 		bytes = Files.readAllBytes(inputFile.toPath());
+		Metrics.record(Metrics.Stage.READ_INPUT, start, bytes.length, 0L);
 		return bytes;
 	}
 	/**
@@ -173,54 +891,56 @@ public class RSA
     }
 	/**
 	 * This method converts input longs to bytes (longs are seperated into 8 bytes). 
+	 * Blocks are written in order, each as exactly 8 unsigned big-endian bytes.
 	 * @param longs
 	 * @return
 	 */
 	public static byte[] longsToBytes(BigInteger[] longs)
 	{
-		byte[] bytes = new byte[] {};
+		return longsToBytes(longs, BlockFormat.LEGACY);
+	}
+	/**
+	 * Converts blocks to bytes, each as exactly format.getBlockBytes() unsigned big-endian bytes
+	 * @param longs
+	 * @param format
+	 * @return
+	 */
+	public static byte[] longsToBytes(BigInteger[] longs, BlockFormat format)
+	{
+		int width = format.getBlockBytes();
+		BlockCodec codec = new BlockCodec(width, 1);
+		long start = Metrics.start();
+		byte[] bytes = new byte[Math.multiplyExact(longs.length, width)];
 		for(int i = 0; i < longs.length; i++)
-		{
-			byte[] b = longs[i].toByteArray();
-			byte[] f = new byte[Math.abs(8 - b.length)];
-			b = combineBytes(f, b);
-			bytes = combineBytes(b, bytes);
-		}
+			codec.encode(longs[i], bytes, i * width);
+		Metrics.record(Metrics.Stage.BLOCKS_TO_BYTES, start, bytes.length, longs.length);
 		return bytes;
 	}
 	/**
-	 * this method converts a byte array to a long array (8 bytes to a long)
+	 * this method converts a byte array to a long array (8 bytes to a long).
+	 * A trailing partial block is zero filled.
 	 * @param bytes
 	 * @return longData (long[])
 	 */
 	public static BigInteger[] bytesToLongs(byte[] bytes)
 	{
-		BigInteger[] longData = new BigInteger[(int)Math.ceil((float)bytes.length/LONG_BYTE_DIVISION)];
-		
-		int differential = Math.abs(bytes.length - (int)Math.ceil((float)bytes.length/LONG_BYTE_DIVISION)*LONG_BYTE_DIVISION);
-		byte[] filler = new byte[differential];
-		byte[] filledBytes = new byte[bytes.length + differential];
-		System.arraycopy(bytes, 0, filledBytes, 0, bytes.length);
-		System.arraycopy(filler, 0, filledBytes, bytes.length, filler.length);
-		bytes = filledBytes;
-		
-		int longDataLength = longData.length;
-		for(int j = 0; j < longDataLength; j++) 
-			longData[j] = convert8Bytes(bytes, j);
-		return longData;
+		return bytesToLongs(bytes, BlockFormat.LEGACY);
 	}
 	/**
-	 * Convert 8 bytes into 1 long
+	 * Converts bytes to blocks of format.getBlockBytes() bytes. A trailing partial block is zero filled.
 	 * @param bytes
-	 * @param round
+	 * @param format
 	 * @return
 	 */
-	private static BigInteger convert8Bytes(byte[] bytes, int round)
+	public static BigInteger[] bytesToLongs(byte[] bytes, BlockFormat format)
 	{
-		long longBytes = 0b0L;
-		byte[] selectedBytes = sliceBytes(bytes, (round*8), (round+1)*8);
-		for(int i = 0; i < 8; i++)
-			longBytes = longBytes | (((long)selectedBytes[i] & 0b011111111) << (56-i*8));
-		return BigInteger.valueOf(longBytes);
+		int width = format.getBlockBytes();
+		BlockCodec codec = new BlockCodec(width, 1);
+		long start = Metrics.start();
+		BigInteger[] longData = new BigInteger[(bytes.length + width - 1) / width];
+		for(int j = 0; j < longData.length; j++) 
+			longData[j] = codec.decode(bytes, j * width, bytes.length - j * width);
+		Metrics.record(Metrics.Stage.BYTES_TO_BLOCKS, start, bytes.length, longData.length);
+		return longData;
 	}
 }
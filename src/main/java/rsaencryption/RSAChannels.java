@@ -0,0 +1,86 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * NIO channel adapters over RSAInputStream and RSAOutputStream. Heap and direct
+ * buffers are both accepted; bytes are copied straight between the caller's
+ * buffer and the stream's block buffer. The wrapped channels must be in blocking mode.
+ * @author Ryan N May
+ */
+public final class RSAChannels
+{
+	private RSAChannels() {}
+
+	/**
+	 * @param channel receives the transformed bytes
+	 * @param key
+	 * @param encrypt true to encrypt, false to decrypt (boolean)
+	 * @return channel whose writes are transformed; close it to write the final block (WritableByteChannel)
+	 */
+	public static WritableByteChannel newWritableChannel(WritableByteChannel channel, LoadedKey key, boolean encrypt)
+	{
+		RSAOutputStream out = new RSAOutputStream(Channels.newOutputStream(channel), key, encrypt);
+		return new WritableByteChannel() {
+			private boolean open = true;
+			@Override
+			public int write(ByteBuffer src) throws IOException
+			{
+				if(!open)
+					throw new ClosedChannelException();
+				return out.write(src);
+			}
+			@Override
+			public boolean isOpen()
+			{
+				return open;
+			}
+			@Override
+			public void close() throws IOException
+			{
+				if(!open)
+					return;
+				open = false;
+				out.close();
+			}
+		};
+	}
+	/**
+	 * @param channel source of the bytes to transform
+	 * @param key
+	 * @param encrypt true to encrypt, false to decrypt (boolean)
+	 * @return channel that reads transformed bytes (ReadableByteChannel)
+	 */
+	public static ReadableByteChannel newReadableChannel(ReadableByteChannel channel, LoadedKey key, boolean encrypt)
+	{
+		RSAInputStream in = new RSAInputStream(Channels.newInputStream(channel), key, encrypt);
+		return new ReadableByteChannel() {
+			private boolean open = true;
+			@Override
+			public int read(ByteBuffer dst) throws IOException
+			{
+				if(!open)
+					throw new ClosedChannelException();
+				return in.read(dst);
+			}
+			@Override
+			public boolean isOpen()
+			{
+				return open;
+			}
+			@Override
+			public void close() throws IOException
+			{
+				if(!open)
+					return;
+				open = false;
+				in.close();
+			}
+		};
+	}
+}
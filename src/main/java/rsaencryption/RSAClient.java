@@ -0,0 +1,231 @@
+package rsaencryption;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thin client for RSADaemon. One connection carries any number of requests,
+ * so a batch of files costs one JVM start in total rather than one per file.
+ * The client authenticates with the token the daemon wrote to its token file
+ * and sends every path as an absolute path.
+ * @author Ryan N May
+ */
+public final class RSAClient implements AutoCloseable
+{
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	/**
+	 * Connects to a daemon on the loopback interface, authenticating with the token in RSADaemon.tokenPath(port)
+	 * @param port (int)
+	 * @throws IOException if the daemon cannot be reached or refuses the token
+	 */
+	public RSAClient(int port) throws IOException
+	{
+		this(port, RSADaemon.tokenPath(port));
+	}
+	/**
+	 * Connects to a daemon on the loopback interface, authenticating with the token in tokenFile
+	 * @param port (int)
+	 * @param tokenFile (Path)
+	 * @throws IOException if the daemon cannot be reached or refuses the token
+	 */
+	public RSAClient(int port, Path tokenFile) throws IOException
+	{
+		String token = RSADaemon.readToken(tokenFile);
+		this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setTcpNoDelay(true);
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			request("AUTH\t" + token);
+			checkStatus();
+		} catch(IOException | RuntimeException ex) {
+			socket.close();
+			throw ex;
+		}
+	}
+	public static void main(String[] argvs)
+	{	// argvs = {[-port n], [-token file], -e/-d key input output | -e/-d key - | -batch | -ping | -shutdown}
+		int port = RSADaemon.DEFAULT_PORT;
+		Path tokenFile = null;
+		int arg = 0;
+		while(argvs.length - arg > 1 && (argvs[arg].equals("-port") || argvs[arg].equals("-token")))
+		{
+			if(argvs[arg].equals("-port"))
+				port = Integer.parseInt(argvs[arg+1]);
+			else
+				tokenFile = Paths.get(argvs[arg+1]);
+			arg += 2;
+		}
+		int args = argvs.length - arg;
+		try(RSAClient client = new RSAClient(port, tokenFile != null ? tokenFile : RSADaemon.tokenPath(port))) {
+			if(args == 4 && (argvs[arg].equals("-e") || argvs[arg].equals("-d")))
+				client.transformFile(argvs[arg].equals("-e"), argvs[arg+1], argvs[arg+2], argvs[arg+3]);
+			else if(args == 3 && argvs[arg+2].equals("-") && (argvs[arg].equals("-e") || argvs[arg].equals("-d")))
+				client.transformStream(argvs[arg].equals("-e"), argvs[arg+1], System.in, System.out);
+			else if(args == 1 && argvs[arg].equals("-batch"))
+				client.batch(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+			else if(args == 1 && argvs[arg].equals("-ping"))
+				client.ping();
+			else if(args == 1 && argvs[arg].equals("-shutdown"))
+				client.shutdown();
+			else
+				System.out.println("Correct use of RSAClient: RSAClient [-port n] [-token file] -e/-d key.ser input.file output.file | -e/-d key.ser - | -batch | -ping | -shutdown");
+		}catch(Exception ex) {
+			System.out.println("An error occured in the execution of RSAClient: \n" + ex.getMessage());
+		}
+	}
+	/**
+	 * Encrypts a file to a file inside the daemon
+	 * @param keyFilePath
+	 * @param inputPath
+	 * @param outputPath
+	 * @throws IOException if the daemon reports an error
+	 */
+	public void encryptFile(String keyFilePath, String inputPath, String outputPath) throws IOException
+	{
+		transformFile(true, keyFilePath, inputPath, outputPath);
+	}
+	/**
+	 * Decrypts a file to a file inside the daemon
+	 * @param keyFilePath
+	 * @param inputPath
+	 * @param outputPath
+	 * @throws IOException if the daemon reports an error
+	 */
+	public void decryptFile(String keyFilePath, String inputPath, String outputPath) throws IOException
+	{
+		transformFile(false, keyFilePath, inputPath, outputPath);
+	}
+	/**
+	 * Sends the bytes of source through the daemon and writes the result to sink
+	 * @param encrypt (boolean)
+	 * @param keyFilePath
+	 * @param source
+	 * @param sink
+	 * @throws IOException if the daemon reports an error
+	 */
+	public void transformStream(boolean encrypt, String keyFilePath, InputStream source, OutputStream sink) throws IOException
+	{
+		request((encrypt ? "ENCRYPT_STREAM" : "DECRYPT_STREAM") + "\t" + absolute(keyFilePath));
+		// Send on a second thread so neither side blocks on a full socket buffer
+		AtomicReference<IOException> sendFailure = new AtomicReference<>();
+		Thread sender = new Thread(() -> {
+			try {
+				RSADaemon.FramedOutputStream frames = new RSADaemon.FramedOutputStream(out);
+				byte[] buffer = new byte[64 << 10];
+				int n;
+				while((n = source.read(buffer)) > 0)
+					frames.write(buffer, 0, n);
+				frames.close();
+			} catch(IOException ex) {
+				sendFailure.set(ex);
+			}
+		}, "rsa-client-send");
+		sender.start();
+		RSADaemon.FramedInputStream frames = new RSADaemon.FramedInputStream(in);
+		byte[] buffer = new byte[64 << 10];
+		int n;
+		while((n = frames.read(buffer, 0, buffer.length)) >= 0)
+			sink.write(buffer, 0, n);
+		sink.flush();
+		try {
+			sender.join();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while sending", ex);
+		}
+		if(sendFailure.get() != null)
+			throw sendFailure.get();
+		checkStatus();
+	}
+	/**
+	 * Runs one request per line of reader, each line being -e or -d followed by key,
+	 * input and output separated by tabs, or by spaces if the line has no tabs.
+	 * Prints one status line per request.
+	 * @param reader
+	 * @throws IOException
+	 */
+	public void batch(BufferedReader reader) throws IOException
+	{
+		String line;
+		while((line = reader.readLine()) != null)
+		{
+			if(line.trim().isEmpty())
+				continue;
+			String[] fields = line.indexOf('\t') >= 0 ? line.split("\t") : line.trim().split(" +");
+			try {
+				if(fields.length != 4 || !(fields[0].equals("-e") || fields[0].equals("-d")))
+					throw new IOException("Expected -e/-d key input output but got: " + line);
+				transformFile(fields[0].equals("-e"), fields[1], fields[2], fields[3]);
+				System.out.println("OK\t" + fields[2]);
+			} catch(IOException ex) {
+				System.out.println("ERROR\t" + ex.getMessage());
+			}
+		}
+	}
+	/**
+	 * @throws IOException if the daemon does not answer
+	 */
+	public void ping() throws IOException
+	{
+		request("PING");
+		checkStatus();
+	}
+	/**
+	 * Asks the daemon to stop accepting connections
+	 * @throws IOException
+	 */
+	public void shutdown() throws IOException
+	{
+		request("SHUTDOWN");
+		checkStatus();
+	}
+	@Override
+	public void close() throws IOException
+	{
+		socket.close();
+	}
+	private void transformFile(boolean encrypt, String keyFilePath, String inputPath, String outputPath) throws IOException
+	{
+		request((encrypt ? "ENCRYPT" : "DECRYPT") + "\t" + absolute(keyFilePath) + "\t" + absolute(inputPath) + "\t" + absolute(outputPath));
+		checkStatus();
+	}
+	/**
+	 * The daemon runs in another directory, so relative paths are resolved here
+	 */
+	private static String absolute(String path)
+	{
+		return Paths.get(path).toAbsolutePath().normalize().toString();
+	}
+	private void request(String line) throws IOException
+	{
+		if(line.indexOf('\n') >= 0)
+			throw new IllegalArgumentException("Request fields cannot contain line breaks");
+		RSADaemon.writeLine(out, line);
+		out.flush();
+	}
+	private void checkStatus() throws IOException
+	{
+		String status = RSADaemon.readLine(in);
+		if(status == null)
+			throw new IOException("Daemon closed the connection");
+		if(!status.equals("OK"))
+			throw new IOException(status.startsWith("ERROR\t") ? status.substring(6) : status);
+	}
+}
@@ -0,0 +1,554 @@
+package rsaencryption;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class keeps RSA resident in a long running process so that each file
+ * costs a socket round trip instead of a JVM start, class loading and key
+ * deserialisation. Keys stay in the shared key cache between requests.
+ * The daemon listens on the loopback interface only. On start it writes a random
+ * token to a file only its owner can read, and each connection must begin with
+ * AUTH and that token, so only processes that can read the owner's files can
+ * use the owner's keys and permissions. Each connection then carries any number
+ * of requests, one line each, fields separated by tabs:
+ * <pre>
+ * AUTH token                   first line of every connection
+ * ENCRYPT key input output     encrypt a file to a file
+ * DECRYPT key input output     decrypt a file to a file
+ * ENCRYPT_STREAM key           encrypt framed bytes that follow the line
+ * DECRYPT_STREAM key           decrypt framed bytes that follow the line
+ * PING                         check the daemon is up
+ * SHUTDOWN                     stop accepting connections
+ * </pre>
+ * Every request is answered with a line of OK or ERROR and a message. A failed
+ * handshake or an unknown or malformed request is answered and the connection
+ * closed, so nothing after it is read. Stream requests send frames of length (int)
+ * and bytes, ended by a zero length frame, and are answered with frames in the
+ * same form before the status line. Paths must be absolute and are resolved to
+ * their real paths by the daemon, which reads and writes files with its own permissions.
+ * @author Ryan N May
+ */
+public final class RSADaemon implements AutoCloseable
+{
+	public static final int DEFAULT_PORT = 7711;
+	/** Largest frame accepted, bounding the buffer a client can ask for */
+	static final int MAX_FRAME_BYTES = 1 << 20;
+	private static final int MAX_LINE_BYTES = 8192;
+	private static final int TOKEN_BYTES = 32;
+	private static final int LINGER_MILLIS = 1000;
+	private final ServerSocket server;
+	private final ExecutorService handlers;
+	private final Path tokenFile;
+	private final byte[] token;
+	private volatile boolean closed;
+
+	/**
+	 * Binds the daemon to the loopback interface and writes its token to tokenPath(port)
+	 * @param port 0 for any free port (int)
+	 * @param threads number of connections served at once (int)
+	 * @throws IOException
+	 */
+	public RSADaemon(int port, int threads) throws IOException
+	{
+		this(port, threads, null);
+	}
+	/**
+	 * Binds the daemon to the loopback interface and writes its token to tokenFile
+	 * @param port 0 for any free port (int)
+	 * @param threads number of connections served at once (int)
+	 * @param tokenFile owner only file for the token, or null for tokenPath of the bound port
+	 * @throws IOException
+	 */
+	public RSADaemon(int port, int threads, Path tokenFile) throws IOException
+	{
+		if(threads <= 0)
+			throw new IllegalArgumentException("Thread count must be positive");
+		this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.tokenFile = tokenFile != null ? tokenFile : tokenPath(server.getLocalPort());
+		this.token = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(token);
+		try {
+			writeToken(this.tokenFile, toHex(token));
+		} catch(IOException ex) {
+			server.close();
+			throw ex;
+		}
+		this.handlers = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "rsa-daemon");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	public static void main(String[] argvs)
+	{	// argvs = {[-port n], [-t threads], [-token file]}
+		try {
+			int port = DEFAULT_PORT;
+			int threads = Runtime.getRuntime().availableProcessors();
+			Path tokenFile = null;
+			for(int arg = 0; arg + 1 < argvs.length; arg += 2)
+			{
+				if(argvs[arg].equals("-port"))
+					port = Integer.parseInt(argvs[arg+1]);
+				else if(argvs[arg].equals("-t"))
+					threads = Integer.parseInt(argvs[arg+1]);
+				else if(argvs[arg].equals("-token"))
+					tokenFile = Paths.get(argvs[arg+1]);
+			}
+			try(RSADaemon daemon = new RSADaemon(port, threads, tokenFile)) {
+				System.out.println("RSA daemon listening on " + daemon.server.getInetAddress().getHostAddress() + ":" + daemon.getPort()
+						+ ", token in " + daemon.getTokenFile());
+				daemon.serve();
+			}
+		}catch(Exception ex) {
+			System.out.println("An error occured in the execution of the RSA daemon: \n" + ex.getMessage());
+		}
+	}
+	/**
+	 * @return the port the daemon is bound to (int)
+	 */
+	public int getPort()
+	{
+		return server.getLocalPort();
+	}
+	/**
+	 * @return the owner only file holding the token clients must send (Path)
+	 */
+	public Path getTokenFile()
+	{
+		return tokenFile;
+	}
+	/**
+	 * @param port (int)
+	 * @return where a daemon on port keeps its token unless told otherwise: .rsa-daemon-port.token in the user's home (Path)
+	 */
+	public static Path tokenPath(int port)
+	{
+		return Paths.get(System.getProperty("user.home"), ".rsa-daemon-" + port + ".token");
+	}
+	/**
+	 * Accepts connections on the calling thread until the daemon is closed or shut down
+	 * @throws IOException
+	 */
+	public void serve() throws IOException
+	{
+		while(!closed)
+		{
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch(SocketException ex) {
+				if(closed)
+					return;
+				throw ex;
+			}
+			try {
+				handlers.execute(() -> handle(socket));
+			} catch(RejectedExecutionException ex) {
+				socket.close();
+			}
+		}
+	}
+	/**
+	 * Accepts connections on a background thread
+	 * @return this daemon (RSADaemon)
+	 */
+	public RSADaemon start()
+	{
+		Thread acceptor = new Thread(() -> {
+			try {
+				serve();
+			} catch(IOException ex) {
+				close();
+			}
+		}, "rsa-daemon-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return this;
+	}
+	/**
+	 * Stops accepting connections, stops the request handlers and deletes the token file
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+		try {
+			server.close();
+		} catch(IOException ex) {
+			// already closed
+		}
+		handlers.shutdownNow();
+		try {
+			Files.deleteIfExists(tokenFile);
+		} catch(IOException ex) {
+			// the token dies with this daemon either way
+		}
+	}
+	private void handle(Socket socket)
+	{
+		try(Socket s = socket) {
+			s.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			String line = readLine(in);
+			if(line == null)
+				return;
+			if(!authorised(line))
+			{
+				reject(s, out, "Not authorised");
+				return;
+			}
+			writeLine(out, "OK");
+			out.flush();
+			while((line = readLine(in)) != null)
+			{
+				String[] fields = line.split("\t", -1);
+				String malformed = checkRequest(fields);
+				if(malformed != null)
+				{	// Stop reading: whatever follows may be another protocol's payload
+					reject(s, out, malformed);
+					return;
+				}
+				writeLine(out, execute(fields, in, out));
+				out.flush();
+				if(fields[0].equals("SHUTDOWN"))
+				{
+					close();
+					return;
+				}
+			}
+		} catch(IOException ex) {
+			// the client went away or broke the framing, nothing more to answer
+		}
+	}
+	/**
+	 * Answers with an error and ends the connection. Unread input is discarded for a
+	 * moment first, as closing with unread input resets the connection and the
+	 * client could lose the answer.
+	 */
+	private static void reject(Socket socket, DataOutputStream out, String message) throws IOException
+	{
+		writeLine(out, "ERROR\t" + message);
+		out.flush();
+		socket.shutdownOutput();
+		socket.setSoTimeout(LINGER_MILLIS);
+		InputStream in = socket.getInputStream();
+		byte[] skip = new byte[MAX_LINE_BYTES];
+		try {
+			for(int total = 0; total < 8 * MAX_LINE_BYTES;)
+			{
+				int n = in.read(skip);
+				if(n < 0)
+					break;
+				total += n;
+			}
+		} catch(SocketTimeoutException ex) {
+			// the client kept the connection open, close it anyway
+		}
+	}
+	/**
+	 * Compares the handshake line with AUTH and the token in constant time
+	 */
+	private boolean authorised(String line)
+	{
+		if(!line.startsWith("AUTH\t"))
+			return false;
+		return MessageDigest.isEqual(toHex(token).getBytes(StandardCharsets.US_ASCII), line.substring(5).getBytes(StandardCharsets.UTF_8));
+	}
+	/**
+	 * @return why the request is malformed, or null if it is a known request with the right arguments
+	 */
+	static String checkRequest(String[] fields)
+	{
+		int expected;
+		switch(fields[0])
+		{
+			case "PING":
+			case "SHUTDOWN":
+				expected = 1;
+				break;
+			case "ENCRYPT":
+			case "DECRYPT":
+				expected = 4;
+				break;
+			case "ENCRYPT_STREAM":
+			case "DECRYPT_STREAM":
+				expected = 2;
+				break;
+			default:
+				return "Unknown request";
+		}
+		if(fields.length != expected)
+			return fields[0] + " takes " + (expected - 1) + " tab separated arguments";
+		for(int i = 1; i < fields.length; i++)
+			if(fields[i].isEmpty() || !Paths.get(fields[i]).isAbsolute())
+				return "Paths must be absolute";
+		return null;
+	}
+	/**
+	 * @return status line for a request that passed checkRequest
+	 * @throws IOException only if the connection can no longer be used
+	 */
+	private static String execute(String[] fields, DataInputStream in, DataOutputStream out) throws IOException
+	{
+		switch(fields[0])
+		{
+			case "ENCRYPT":
+			case "DECRYPT":
+				try {
+					String key = canonical(fields[1], true);
+					String input = canonical(fields[2], true);
+					String output = canonical(fields[3], false);
+					if(fields[0].equals("ENCRYPT"))
+						RSA.encryptFile(input, output, key, null, 1);
+					else
+						RSA.decryptFile(input, output, key, null, 1);
+					return "OK";
+				} catch(IOException | ClassNotFoundException | RuntimeException ex) {
+					return error(ex);
+				}
+			case "ENCRYPT_STREAM":
+			case "DECRYPT_STREAM":
+				return stream(fields, in, out);
+			default:
+				return "OK";
+		}
+	}
+	/**
+	 * Resolves links and . or .. in an absolute path
+	 * @param exists true if the file must exist, false to resolve only its directory
+	 */
+	private static String canonical(String path, boolean exists) throws IOException
+	{
+		Path file = Paths.get(path);
+		if(exists)
+			return file.toRealPath().toString();
+		Path parent = file.getParent();
+		if(parent == null || file.getFileName() == null)
+			throw new IOException("Not a file path: " + path);
+		return parent.toRealPath().resolve(file.getFileName()).toString();
+	}
+	/**
+	 * Transforms the request frames into response frames. On failure the rest of the
+	 * request frames are drained so the connection stays usable for the next request.
+	 */
+	private static String stream(String[] fields, DataInputStream in, DataOutputStream out) throws IOException
+	{
+		FramedInputStream frames = new FramedInputStream(in);
+		FramedOutputStream response = new FramedOutputStream(out);
+		String status = "OK";
+		try {
+			LoadedKey key = RSA.getKeyCache().get(canonical(fields[1], true));
+			if(fields[0].equals("ENCRYPT_STREAM"))
+				RSA.encryptStream(frames, response, key, null, 1);
+			else
+				RSA.decryptStream(frames, response, key, null, 1);
+		} catch(IOException | ClassNotFoundException | RuntimeException ex) {
+			status = error(ex);
+		}
+		// Fails in turn if the connection itself broke, ending the connection
+		frames.drain();
+		response.close();
+		return status;
+	}
+	private static String error(Exception ex)
+	{
+		return "ERROR\t" + String.valueOf(ex.getMessage()).replace('\n', ' ');
+	}
+	/**
+	 * Creates the token file readable and writable by its owner only, replacing a stale one
+	 */
+	private static void writeToken(Path file, String value) throws IOException
+	{
+		Files.deleteIfExists(file);
+		byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+		try {
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch(UnsupportedOperationException ex) {
+			// not a POSIX file system, restrict the file before the token is written
+			Files.createFile(file);
+			File plain = file.toFile();
+			if(!(plain.setReadable(false, false) && plain.setReadable(true, true)
+					&& plain.setWritable(false, false) && plain.setWritable(true, true)))
+				throw new IOException("Could not restrict " + file + " to its owner");
+		} catch(FileAlreadyExistsException ex) {
+			throw new IOException("Another process created " + file + " first", ex);
+		}
+		Files.write(file, bytes, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+	/**
+	 * Reads the token a daemon wrote
+	 * @param file
+	 * @return token (String)
+	 * @throws IOException
+	 */
+	static String readToken(Path file) throws IOException
+	{
+		return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+	}
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+	/**
+	 * @return the next line without its terminator, or null at the end of the stream
+	 */
+	static String readLine(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while((b = in.read()) >= 0 && b != '\n')
+		{
+			if(line.size() >= MAX_LINE_BYTES)
+				throw new IOException("Request line too long");
+			line.write(b);
+		}
+		if(b < 0 && line.size() == 0)
+			return null;
+		String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+		return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+	}
+	static void writeLine(OutputStream out, String line) throws IOException
+	{
+		out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Reads a sequence of length prefixed frames as one stream, ending at the zero length frame */
+	static final class FramedInputStream extends InputStream
+	{
+		private final DataInputStream in;
+		private int remaining;
+		private boolean finished;
+
+		FramedInputStream(DataInputStream in)
+		{
+			this.in = in;
+		}
+		@Override
+		public int read() throws IOException
+		{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if(len == 0)
+				return 0;
+			while(remaining == 0)
+			{
+				if(finished)
+					return -1;
+				int length;
+				try {
+					length = in.readInt();
+				} catch(EOFException ex) {
+					throw new IOException("Stream ended inside a framed request", ex);
+				}
+				if(length < 0 || length > MAX_FRAME_BYTES)
+					throw new IOException("Invalid frame length " + length);
+				remaining = length;
+				finished = length == 0;
+			}
+			int n = in.read(b, off, Math.min(len, remaining));
+			if(n < 0)
+				throw new IOException("Stream ended inside a frame");
+			remaining -= n;
+			return n;
+		}
+		/**
+		 * Skips any frames not yet read, up to and including the end frame
+		 */
+		void drain() throws IOException
+		{
+			byte[] skip = new byte[8192];
+			while(read(skip, 0, skip.length) >= 0);
+		}
+	}
+
+	/** Writes a stream as length prefixed frames; close writes the end frame but leaves the connection open */
+	static final class FramedOutputStream extends OutputStream
+	{
+		private final DataOutputStream out;
+		private final byte[] buffer = new byte[64 << 10];
+		private int filled;
+		private boolean closed;
+
+		FramedOutputStream(DataOutputStream out)
+		{
+			this.out = out;
+		}
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			while(len > 0)
+			{
+				int n = Math.min(len, buffer.length - filled);
+				System.arraycopy(b, off, buffer, filled, n);
+				filled += n;
+				off += n;
+				len -= n;
+				if(filled == buffer.length)
+					writeFrame();
+			}
+		}
+		@Override
+		public void flush() throws IOException
+		{
+			writeFrame();
+			out.flush();
+		}
+		@Override
+		public void close() throws IOException
+		{
+			if(closed)
+				return;
+			closed = true;
+			writeFrame();
+			out.writeInt(0);
+			out.flush();
+		}
+		private void writeFrame() throws IOException
+		{
+			if(filled == 0)
+				return;
+			out.writeInt(filled);
+			out.write(buffer, 0, filled);
+			filled = 0;
+		}
+	}
+}
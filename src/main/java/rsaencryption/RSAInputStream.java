@@ -0,0 +1,136 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream that reads bytes from another stream and returns them encrypted or
+ * decrypted. The source is read up to BlockCodec.BATCH_BLOCKS blocks at a time, so memory
+ * use is bounded however long the stream. Whole blocks are transformed as soon as
+ * a read of the source returns them, so a slow source such as a socket does not
+ * hold back data until a batch is full; only a partial block waits for the rest
+ * of its bytes. A final partial block is padded with
+ * zeros, as RSA.encryptStream does, and reading the whole stream gives the same
+ * bytes as RSA.encryptStream or RSA.decryptStream. Not thread safe.
+ * @author Ryan N May
+ */
+public class RSAInputStream extends InputStream
+{
+	private final InputStream in;
+	private final LoadedKey key;
+	private final BlockCodec reader;
+	private final BlockCodec writer;
+	private final byte[] input;
+	private int pending; // bytes of an incomplete block kept at the start of input
+	private byte[] output = new byte[0];
+	private int position;
+	private boolean finished;
+	private boolean closed;
+
+	/**
+	 * @param in source of the bytes to transform
+	 * @param key
+	 * @param encrypt true to encrypt, false to decrypt (boolean)
+	 */
+	public RSAInputStream(InputStream in, LoadedKey key, boolean encrypt)
+	{
+		BlockFormat format = key.getBlockFormat();
+		this.in = in;
+		this.key = key;
+		this.reader = new BlockCodec(encrypt ? format.getDataBytes() : format.getBlockBytes(), 1);
+		this.writer = new BlockCodec(encrypt ? format.getBlockBytes() : format.getDataBytes(), 1);
+		this.input = new byte[BlockCodec.BATCH_BLOCKS * reader.getWidth()];
+	}
+	@Override
+	public int read() throws IOException
+	{
+		if(!fill())
+			return -1;
+		return output[position++] & 0xFF;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if(len == 0)
+			return 0;
+		if(!fill())
+			return -1;
+		int n = Math.min(len, output.length - position);
+		System.arraycopy(output, position, b, off, n);
+		position += n;
+		return n;
+	}
+	/**
+	 * Reads into the remaining space of dst, which may be a direct buffer
+	 * @param dst
+	 * @return bytes read, or -1 at the end of the stream (int)
+	 * @throws IOException
+	 */
+	public int read(ByteBuffer dst) throws IOException
+	{
+		if(!dst.hasRemaining())
+			return 0;
+		if(!fill())
+			return -1;
+		int n = Math.min(dst.remaining(), output.length - position);
+		dst.put(output, position, n);
+		position += n;
+		return n;
+	}
+	@Override
+	public int available() throws IOException
+	{
+		ensureOpen();
+		return output.length - position;
+	}
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		in.close();
+	}
+	/**
+	 * Once the current output is used up, reads the source once and transforms the
+	 * whole blocks it returned, carrying a partial block over to the next read
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException
+	{
+		ensureOpen();
+		while(position == output.length)
+		{
+			if(finished)
+				return false;
+			int n = in.read(input, pending, input.length - pending);
+			int length;
+			if(n <= 0)
+			{
+				// The final partial block, zero filled by the codec
+				finished = true;
+				length = pending;
+			}
+			else
+			{
+				pending += n;
+				length = pending / reader.getWidth() * reader.getWidth();
+				if(length == 0)
+					continue;
+			}
+			output = ContainerFormat.transformChunk(input, length, reader, writer, key, null, 1);
+			System.arraycopy(input, length, input, 0, pending - length);
+			pending -= length;
+			position = 0;
+		}
+		return true;
+	}
+	private void ensureOpen() throws IOException
+	{
+		if(closed)
+			throw new IOException("Stream closed");
+	}
+}
@@ -0,0 +1,130 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * OutputStream that encrypts or decrypts the bytes written to it and passes the
+ * result on to another stream. Bytes are collected into a buffer of
+ * BlockCodec.BATCH_BLOCKS blocks and transformed a buffer at a time, so memory use
+ * is bounded however much is written. flush passes on every whole block written so
+ * far; close pads a final partial block with zeros, as RSA.encryptStream does.
+ * Writing a whole stream and closing gives the same bytes as RSA.encryptStream or
+ * RSA.decryptStream. Not thread safe.
+ * @author Ryan N May
+ */
+public class RSAOutputStream extends OutputStream
+{
+	private final OutputStream out;
+	private final LoadedKey key;
+	private final BlockCodec reader;
+	private final BlockCodec writer;
+	private final byte[] buffer;
+	private int filled;
+	private boolean closed;
+
+	/**
+	 * @param out receives the transformed bytes
+	 * @param key
+	 * @param encrypt true to encrypt, false to decrypt (boolean)
+	 */
+	public RSAOutputStream(OutputStream out, LoadedKey key, boolean encrypt)
+	{
+		BlockFormat format = key.getBlockFormat();
+		this.out = out;
+		this.key = key;
+		this.reader = new BlockCodec(encrypt ? format.getDataBytes() : format.getBlockBytes(), 1);
+		this.writer = new BlockCodec(encrypt ? format.getBlockBytes() : format.getDataBytes(), 1);
+		this.buffer = new byte[BlockCodec.BATCH_BLOCKS * reader.getWidth()];
+	}
+	@Override
+	public void write(int b) throws IOException
+	{
+		ensureOpen();
+		buffer[filled++] = (byte) b;
+		if(filled == buffer.length)
+			emit(filled);
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		ensureOpen();
+		if(off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		while(len > 0)
+		{
+			int n = Math.min(len, buffer.length - filled);
+			System.arraycopy(b, off, buffer, filled, n);
+			filled += n;
+			off += n;
+			len -= n;
+			if(filled == buffer.length)
+				emit(filled);
+		}
+	}
+	/**
+	 * Writes the remaining bytes of src, which may be a direct buffer
+	 * @param src
+	 * @return bytes written (int)
+	 * @throws IOException
+	 */
+	public int write(ByteBuffer src) throws IOException
+	{
+		ensureOpen();
+		int total = src.remaining();
+		while(src.hasRemaining())
+		{
+			int n = Math.min(src.remaining(), buffer.length - filled);
+			src.get(buffer, filled, n);
+			filled += n;
+			if(filled == buffer.length)
+				emit(filled);
+		}
+		return total;
+	}
+	/**
+	 * Passes on every whole block written so far. A trailing partial block stays
+	 * buffered until more bytes complete it or the stream is closed.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		ensureOpen();
+		emit(filled - filled % reader.getWidth());
+		out.flush();
+	}
+	/**
+	 * Pads and passes on any remaining bytes, then closes the underlying stream
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		try {
+			emit(filled);
+			out.flush();
+		} finally {
+			closed = true;
+			out.close();
+		}
+	}
+	/**
+	 * Transforms and writes the first length bytes of the buffer, keeping the rest
+	 */
+	private void emit(int length) throws IOException
+	{
+		if(length == 0)
+			return;
+		byte[] result = ContainerFormat.transformChunk(buffer, length, reader, writer, key, null, 1);
+		out.write(result);
+		System.arraycopy(buffer, length, buffer, 0, filled - length);
+		filled -= length;
+	}
+	private void ensureOpen() throws IOException
+	{
+		if(closed)
+			throw new IOException("Stream closed");
+	}
+}
@@ -0,0 +1,233 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Asynchronous front end to RSA for servers handling many requests at once.
+ * Blocking work (reading keys and files) runs on an I/O executor: one virtual
+ * thread per task when the JVM has them (Java 21+), otherwise a fixed pool of
+ * platform threads. CPU bound modular exponentiation runs on a separate compute
+ * pool with one thread per core, so the number of threads stays bounded however
+ * many requests are in flight and a request waiting on the disk never holds a core.
+ * Every method returns at once; failures complete the future exceptionally
+ * with the original exception as the cause of a CompletionException.
+ * @author Ryan N May
+ */
+public final class RSAService implements AutoCloseable
+{
+	/** Platform threads for blocking work when virtual threads are not available */
+	public static final int DEFAULT_IO_THREADS = 64;
+	private final ExecutorService io;
+	private final ForkJoinPool compute;
+	private final boolean virtualThreads;
+
+	/**
+	 * Uses one compute thread per core and virtual threads for I/O if available
+	 */
+	public RSAService()
+	{
+		this(Runtime.getRuntime().availableProcessors(), true);
+	}
+	/**
+	 * @param computeThreads threads doing modular exponentiation (int)
+	 * @param preferVirtualThreads false to always use a fixed pool of DEFAULT_IO_THREADS for I/O (boolean)
+	 */
+	public RSAService(int computeThreads, boolean preferVirtualThreads)
+	{
+		if(computeThreads <= 0)
+			throw new IllegalArgumentException("Thread count must be positive");
+		ExecutorService virtual = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+		this.virtualThreads = virtual != null;
+		this.io = virtual != null ? virtual : Executors.newFixedThreadPool(DEFAULT_IO_THREADS, task -> {
+			Thread thread = new Thread(task, "rsa-service-io");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.compute = new ForkJoinPool(computeThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+	}
+	/**
+	 * @return true if this JVM can run one virtual thread per task (boolean)
+	 */
+	public static boolean virtualThreadsAvailable()
+	{
+		ExecutorService executor = newVirtualThreadExecutor();
+		if(executor == null)
+			return false;
+		executor.shutdown();
+		return true;
+	}
+	/**
+	 * @return true if blocking work of this service runs on virtual threads (boolean)
+	 */
+	public boolean usesVirtualThreads()
+	{
+		return virtualThreads;
+	}
+	/**
+	 * Loads a key through the shared key cache on the I/O executor
+	 * @param keyFilePath
+	 * @return the key (CompletableFuture)
+	 */
+	public CompletableFuture<LoadedKey> loadKey(String keyFilePath)
+	{
+		return call(() -> RSA.getKeyCache().get(keyFilePath));
+	}
+	/**
+	 * Applies the key to each block. Large inputs are split across the compute pool.
+	 * @param data_in
+	 * @param keyFilePath
+	 * @return data_out (CompletableFuture)
+	 */
+	public CompletableFuture<BigInteger[]> performRSA(BigInteger[] data_in, String keyFilePath)
+	{
+		return loadKey(keyFilePath).thenCompose(key -> performRSA(data_in, key));
+	}
+	/**
+	 * As performRSA(data_in, keyFilePath) with an already loaded key
+	 * @param data_in
+	 * @param key
+	 * @return data_out (CompletableFuture)
+	 */
+	public CompletableFuture<BigInteger[]> performRSA(BigInteger[] data_in, LoadedKey key)
+	{
+		BigInteger[] data_out = new BigInteger[data_in.length];
+		return inRanges(data_in.length, (from, to) -> {
+			for(int i = from; i < to; i++)
+				data_out[i] = key.apply(data_in[i]);
+		}).thenApply(done -> data_out);
+	}
+	/**
+	 * As performRSA on blocks held as unsigned longs (see LoadedKey.usesLongPath)
+	 * @param data_in (long[])
+	 * @param key
+	 * @return data_out (CompletableFuture)
+	 */
+	public CompletableFuture<long[]> performRSA(long[] data_in, LoadedKey key)
+	{
+		long[] data_out = new long[data_in.length];
+		return inRanges(data_in.length, (from, to) -> key.apply(data_in, data_out, from, to)).thenApply(done -> data_out);
+	}
+	/**
+	 * Encrypts bytes held in memory. The result is what RSA.encryptStream writes for the same bytes.
+	 * @param plain
+	 * @param keyFilePath
+	 * @return cipher bytes (CompletableFuture)
+	 */
+	public CompletableFuture<byte[]> encrypt(byte[] plain, String keyFilePath)
+	{
+		return loadKey(keyFilePath).thenApplyAsync(key -> transform(plain, key, true), compute);
+	}
+	/**
+	 * Decrypts bytes held in memory. The result is what RSA.decryptStream writes for the same bytes.
+	 * @param cipher
+	 * @param keyFilePath
+	 * @return plain bytes, padded to a whole block (CompletableFuture)
+	 */
+	public CompletableFuture<byte[]> decrypt(byte[] cipher, String keyFilePath)
+	{
+		return loadKey(keyFilePath).thenApplyAsync(key -> transform(cipher, key, false), compute);
+	}
+	/**
+	 * Encrypts a file to a file. File I/O waits on the I/O executor while blocks are
+	 * transformed on the compute pool.
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @return completion (CompletableFuture)
+	 */
+	public CompletableFuture<Void> encryptFile(String inputPath, String outputPath, String keyFilePath)
+	{
+		return call(() -> {
+			RSA.encryptFile(inputPath, outputPath, keyFilePath, compute, compute.getParallelism());
+			return null;
+		});
+	}
+	/**
+	 * Decrypts a file to a file, as encryptFile
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @return completion (CompletableFuture)
+	 */
+	public CompletableFuture<Void> decryptFile(String inputPath, String outputPath, String keyFilePath)
+	{
+		return call(() -> {
+			RSA.decryptFile(inputPath, outputPath, keyFilePath, compute, compute.getParallelism());
+			return null;
+		});
+	}
+	/**
+	 * Runs blocking work of the caller on the I/O executor, one virtual thread per task if available
+	 * @param task
+	 * @return result of task (CompletableFuture)
+	 */
+	public <T> CompletableFuture<T> call(Callable<T> task)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return task.call();
+			} catch(Exception ex) {
+				throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+			}
+		}, io);
+	}
+	/**
+	 * Stops accepting work; tasks already submitted still complete
+	 */
+	@Override
+	public void close()
+	{
+		io.shutdown();
+		compute.shutdown();
+	}
+	private static byte[] transform(byte[] in, LoadedKey key, boolean encrypt)
+	{
+		BlockFormat format = key.getBlockFormat();
+		BlockCodec reader = new BlockCodec(encrypt ? format.getDataBytes() : format.getBlockBytes(), 1);
+		BlockCodec writer = new BlockCodec(encrypt ? format.getBlockBytes() : format.getDataBytes(), 1);
+		return ContainerFormat.transformChunk(in, in.length, reader, writer, key, null, 1);
+	}
+	/**
+	 * Runs task over [0, count) on the compute pool, in one range per compute thread
+	 * when count reaches RSA.PARALLEL_THRESHOLD. Nothing blocks waiting for the ranges.
+	 */
+	private CompletableFuture<Void> inRanges(int count, RangeTask task)
+	{
+		int ranges = count < RSA.PARALLEL_THRESHOLD ? 1 : compute.getParallelism();
+		int chunk = Math.max(1, (count + ranges - 1) / ranges);
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		for(int start = 0; start < count || tasks.isEmpty(); start += chunk)
+		{
+			final int from = start;
+			final int to = Math.min(count, start + chunk);
+			tasks.add(CompletableFuture.runAsync(() -> task.run(from, to), compute));
+		}
+		return tasks.size() == 1 ? tasks.get(0) : CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]));
+	}
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor is looked up reflectively so the
+	 * class still compiles and runs on Java 8
+	 * @return the executor, or null if this JVM has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor()
+	{
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+	private interface RangeTask
+	{
+		void run(int from, int to);
+	}
+}
@@ -0,0 +1,260 @@
+package rsaencryption;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * This class encrypts or decrypts very large files so that a run which dies can be
+ * resumed. Every CHECKPOINT_BYTES of input the output is forced to disk and a small
+ * checkpoint file next to it records the input and output offsets, the block count
+ * and a CRC32 of the output so far. A restarted run reads the checkpoint, truncates
+ * anything written after it, checks the CRC32 of the kept output (a sequential read,
+ * far cheaper than recomputing the blocks) and carries on from the recorded offsets.
+ * If the checkpoint is missing, damaged, or belongs to another key or input, the run
+ * starts over. The checkpoint is deleted once the output is complete, and the output
+ * is the same as RSA.encryptFile or RSA.decryptFile, LengthTrailer included.
+ * @author Ryan N May
+ */
+public final class ResumableCipher
+{
+	/** Input bytes between checkpoints */
+	public static final long CHECKPOINT_BYTES = 64L << 20;
+	/** Appended to the output path to name the checkpoint file */
+	public static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+	private ResumableCipher() {}
+
+	/**
+	 * Encrypts a file, resuming from a checkpoint of an earlier run if there is one
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @return input offset the run resumed from, 0 if it started over (long)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static long encryptFile(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		return transform(Paths.get(inputPath), Paths.get(outputPath), RSA.getKeyCache().get(keyFilePath), true, CHECKPOINT_BYTES, Long.MAX_VALUE, executor, parallelism);
+	}
+	/**
+	 * Decrypts a file, resuming from a checkpoint of an earlier run if there is one
+	 * @param inputPath
+	 * @param outputPath
+	 * @param keyFilePath
+	 * @param executor
+	 * @param parallelism
+	 * @return input offset the run resumed from, 0 if it started over (long)
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static long decryptFile(String inputPath, String outputPath, String keyFilePath, Executor executor, int parallelism) throws IOException, ClassNotFoundException
+	{
+		return transform(Paths.get(inputPath), Paths.get(outputPath), RSA.getKeyCache().get(keyFilePath), false, CHECKPOINT_BYTES, Long.MAX_VALUE, executor, parallelism);
+	}
+	/**
+	 * @param output
+	 * @return the checkpoint file kept for output (Path)
+	 */
+	public static Path checkpointPath(Path output)
+	{
+		return output.resolveSibling(output.getFileName() + CHECKPOINT_SUFFIX);
+	}
+	/**
+	 * @param checkpointBytes input bytes between checkpoints, a multiple of the block size is used (long)
+	 * @param stopAfter input offset at which to stop as if the process had died, Long.MAX_VALUE to finish (long)
+	 */
+	static long transform(Path input, Path output, LoadedKey key, boolean encrypt, long checkpointBytes, long stopAfter, Executor executor, int parallelism) throws IOException
+	{
+		BlockFormat format = key.getBlockFormat();
+		BlockCodec reader = new BlockCodec(encrypt ? format.getDataBytes() : format.getBlockBytes(), 1);
+		BlockCodec writer = new BlockCodec(encrypt ? format.getBlockBytes() : format.getDataBytes(), 1);
+		int inWidth = reader.getWidth();
+		int chunkBytes = BlockCodec.BATCH_BLOCKS * inWidth;
+		long interval = Math.max(chunkBytes, checkpointBytes / chunkBytes * chunkBytes);
+		Path checkpointFile = checkpointPath(output);
+		try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long inputSize = in.size();
+			// Decryption stops at the trailer and trims the output to the length it records
+			long plainLength = encrypt ? -1L : LengthTrailer.read(in, format);
+			long blockBytes = LengthTrailer.blockBytes(inputSize, plainLength);
+			long inputModified = Files.getLastModifiedTime(input).toMillis();
+			Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+			CRC32 crc = new CRC32();
+			if(checkpoint == null || !checkpoint.matches(key.getKeyId(), encrypt, inputSize, inputModified)
+					|| checkpoint.outputOffset != checkpoint.blocks * writer.getWidth()
+					|| out.size() < checkpoint.outputOffset || !verify(out, checkpoint, crc))
+			{
+				checkpoint = new Checkpoint(key.getKeyId(), encrypt, inputSize, inputModified, 0L, 0L, 0L, 0L);
+				crc.reset();
+			}
+			long resumedFrom = checkpoint.inputOffset;
+			out.truncate(checkpoint.outputOffset);
+			long inOffset = checkpoint.inputOffset;
+			long outOffset = checkpoint.outputOffset;
+			long blocks = checkpoint.blocks;
+			long nextCheckpoint = inOffset + interval;
+			ByteBuffer buffer = ByteBuffer.allocate(chunkBytes);
+			while(inOffset < blockBytes)
+			{
+				if(inOffset >= stopAfter)
+					return resumedFrom;
+				buffer.clear();
+				buffer.limit((int) Math.min(chunkBytes, blockBytes - inOffset));
+				while(buffer.hasRemaining())
+					if(in.read(buffer, inOffset + buffer.position()) < 0)
+						throw new IOException("File shrank while it was read");
+				int length = buffer.position();
+				byte[] result = ContainerFormat.transformChunk(buffer.array(), length, reader, writer, key, executor, parallelism);
+				crc.update(result, 0, result.length);
+				ByteBuffer src = ByteBuffer.wrap(result);
+				while(src.hasRemaining())
+					outOffset += out.write(src, outOffset);
+				inOffset += length;
+				blocks += (length + inWidth - 1) / inWidth;
+				if(inOffset >= nextCheckpoint && inOffset < blockBytes)
+				{
+					// The output must be on disk before the checkpoint that points past it
+					out.force(false);
+					new Checkpoint(key.getKeyId(), encrypt, inputSize, inputModified, inOffset, outOffset, blocks, crc.getValue()).write(checkpointFile);
+					nextCheckpoint = inOffset + interval;
+				}
+			}
+			if(encrypt)
+			{
+				ByteBuffer trailer = ByteBuffer.wrap(LengthTrailer.encode(inOffset));
+				while(trailer.hasRemaining())
+					outOffset += out.write(trailer, outOffset);
+			}
+			else if(plainLength >= 0)
+				out.truncate(plainLength);
+			out.force(false);
+			Files.deleteIfExists(checkpointFile);
+			return resumedFrom;
+		}
+	}
+	/**
+	 * Computes the CRC32 of the kept output into crc and compares it with the checkpoint
+	 */
+	private static boolean verify(FileChannel out, Checkpoint checkpoint, CRC32 crc) throws IOException
+	{
+		crc.reset();
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+		for(long position = 0; position < checkpoint.outputOffset;)
+		{
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), checkpoint.outputOffset - position));
+			int n = out.read(buffer, position);
+			if(n <= 0)
+				return false;
+			crc.update(buffer.array(), 0, n);
+			position += n;
+		}
+		return crc.getValue() == checkpoint.crc;
+	}
+
+	/** Progress recorded after the output up to outputOffset was forced to disk */
+	static final class Checkpoint
+	{
+		private static final int MAGIC = 0x5253434B; // "RSCK"
+		private static final int VERSION = 1;
+		final long keyId;
+		final boolean encrypt;
+		final long inputSize;
+		final long inputModified;
+		final long inputOffset;
+		final long outputOffset;
+		final long blocks;
+		final long crc; // CRC32 of output bytes [0, outputOffset)
+
+		Checkpoint(long keyId, boolean encrypt, long inputSize, long inputModified, long inputOffset, long outputOffset, long blocks, long crc)
+		{
+			this.keyId = keyId;
+			this.encrypt = encrypt;
+			this.inputSize = inputSize;
+			this.inputModified = inputModified;
+			this.inputOffset = inputOffset;
+			this.outputOffset = outputOffset;
+			this.blocks = blocks;
+			this.crc = crc;
+		}
+		boolean matches(long keyId, boolean encrypt, long inputSize, long inputModified)
+		{
+			return this.keyId == keyId && this.encrypt == encrypt && this.inputSize == inputSize && this.inputModified == inputModified;
+		}
+		/**
+		 * Writes to a temporary file, forces it and renames it over file, so a crash
+		 * leaves either the old checkpoint or the new one
+		 */
+		void write(Path file) throws IOException
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeLong(keyId);
+			data.writeBoolean(encrypt);
+			data.writeLong(inputSize);
+			data.writeLong(inputModified);
+			data.writeLong(inputOffset);
+			data.writeLong(outputOffset);
+			data.writeLong(blocks);
+			data.writeLong(crc);
+			CRC32 check = new CRC32();
+			check.update(bytes.toByteArray());
+			data.writeInt((int) check.getValue());
+			data.flush();
+			Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer src = ByteBuffer.wrap(bytes.toByteArray());
+				while(src.hasRemaining())
+					channel.write(src);
+				channel.force(true);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		/**
+		 * @return the checkpoint, or null if there is none or it is damaged
+		 */
+		static Checkpoint read(Path file) throws IOException
+		{
+			byte[] bytes;
+			try {
+				bytes = Files.readAllBytes(file);
+			} catch(NoSuchFileException ex) {
+				return null;
+			}
+			if(bytes.length < 4)
+				return null;
+			CRC32 check = new CRC32();
+			check.update(bytes, 0, bytes.length - 4);
+			try(DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes))) {
+				if(data.readInt() != MAGIC || data.readInt() != VERSION)
+					return null;
+				Checkpoint checkpoint = new Checkpoint(data.readLong(), data.readBoolean(), data.readLong(), data.readLong(),
+						data.readLong(), data.readLong(), data.readLong(), data.readLong());
+				if(data.readInt() != (int) check.getValue() || data.available() != 0)
+					return null;
+				return checkpoint;
+			} catch(IOException ex) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package rsaencryption;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestBatchEncryptor
+{
+	@Test
+	public void testTreeMatchesSingleFiles(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		int dataBytes = RSA.loadKey(pub).getBlockFormat().getDataBytes();
+		Path plain = dir.resolve("plain");
+		Files.createDirectories(plain.resolve("a/b"));
+		Random random = new Random(13);
+		// Packed small files, one whole file, and a file split into chunks, most ending in a partial block
+		int[] sizes = {0, dataBytes, dataBytes * 10 + 1, dataBytes * 40000 + 2, dataBytes * (BatchEncryptor.CHUNK_BYTES / dataBytes * 2 + 3) + 5};
+		String[] names = {"empty.bin", "a/one.bin", "a/b/small.bin", "a/medium.bin", "large.bin"};
+		for(int i = 0; i < sizes.length; i++)
+		{
+			byte[] bytes = new byte[sizes[i]];
+			random.nextBytes(bytes);
+			Files.write(plain.resolve(names[i]), bytes);
+		}
+		Path encrypted = dir.resolve("encrypted");
+		Path decrypted = dir.resolve("decrypted");
+		// A small memory bound makes the walk wait on the pool
+		BatchEncryptor.Report report = BatchEncryptor.run(plain, encrypted, pub, true, 2, 1 << 20);
+		assertEquals(names.length, report.getFiles());
+		assertTrue(report.getFailures().isEmpty());
+		assertEquals(BatchEncryptor.run(encrypted, decrypted, pri, false, 2, 1 << 20).getFiles(), names.length);
+		for(String name : names)
+		{
+			Path single = dir.resolve("single.bin");
+			RSA.encryptFile(plain.resolve(name).toString(), single.toString(), pub);
+			assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(encrypted.resolve(name)), name);
+			assertArrayEquals(Files.readAllBytes(plain.resolve(name)), Files.readAllBytes(decrypted.resolve(name)), name);
+		}
+	}
+	@Test
+	public void testReportsUnreadableFiles(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey.ser").toString();
+		KeySet.CreateKeys(pub, dir.resolve("privateKey.ser").toString());
+		Path plain = dir.resolve("plain");
+		Files.createDirectories(plain);
+		Files.write(plain.resolve("ok.bin"), new byte[100]);
+		// The output directory exists as a file, so the file beneath it cannot be written
+		Files.createDirectories(plain.resolve("sub"));
+		Files.write(plain.resolve("sub/blocked.bin"), new byte[100]);
+		Path encrypted = dir.resolve("encrypted");
+		Files.createDirectories(encrypted);
+		Files.write(encrypted.resolve("sub"), new byte[0]);
+		BatchEncryptor.Report report = BatchEncryptor.run(plain, encrypted, pub, true, 1, 1 << 20);
+		assertEquals(1, report.getFiles());
+		assertEquals(1, report.getFailures().size());
+		assertTrue(Files.exists(encrypted.resolve("ok.bin")));
+	}
+}
@@ -0,0 +1,127 @@
+package rsaencryption;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestContainer
+{
+	@Test
+	public void testRoundTripTrimsFinalBlock(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(512);
+		byte[] plain = new byte[10007];
+		new Random(3).nextBytes(plain);
+		Path container = encrypt(dir, new LoadedKey(keys.publicKey), plain, 16);
+		try(ContainerReader reader = ContainerReader.open(container, new LoadedKey(keys.privateKey))) {
+			assertEquals(plain.length, reader.getLength());
+			assertEquals(reader.getFormat().chunkCount(), reader.getChunkCount());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			reader.read(0L, Long.MAX_VALUE, out);
+			assertArrayEquals(plain, out.toByteArray());
+		}
+	}
+	@Test
+	public void testRandomAccess(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		byte[] plain = new byte[50000];
+		new Random(5).nextBytes(plain);
+		Path container = encrypt(dir, new LoadedKey(keys.publicKey), plain, 100);
+		try(ContainerReader reader = ContainerReader.open(container, new LoadedKey(keys.privateKey))) {
+			int chunkBytes = reader.getFormat().getChunkBytes();
+			// A range crossing chunk boundaries, the tail, and one whole chunk
+			assertArrayEquals(Arrays.copyOfRange(plain, 1234, 1234 + 3 * chunkBytes), reader.read(1234L, 3 * chunkBytes));
+			assertArrayEquals(Arrays.copyOfRange(plain, plain.length - 10, plain.length), reader.read(plain.length - 10L, 100));
+			assertArrayEquals(Arrays.copyOfRange(plain, 2 * chunkBytes, 3 * chunkBytes), reader.readChunk(2));
+			assertEquals(0, reader.read(plain.length, 10).length);
+		}
+	}
+	@Test
+	public void testReadsOnlyTheIndexEntriesItNeeds(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		byte[] plain = new byte[5000];
+		new Random(7).nextBytes(plain);
+		Path container = encrypt(dir, new LoadedKey(keys.publicKey), plain, 100);
+		int chunks;
+		try(ContainerReader reader = ContainerReader.open(container, new LoadedKey(keys.privateKey))) {
+			chunks = reader.getChunkCount();
+		}
+		// Zero the plain length of the first chunk's index entry
+		try(FileChannel channel = FileChannel.open(container, StandardOpenOption.WRITE)) {
+			long entry = channel.size() - ContainerFormat.FOOTER_BYTES - (long) chunks * ContainerFormat.INDEX_ENTRY_BYTES;
+			channel.write(ByteBuffer.allocate(4), entry + 12);
+		}
+		try(ContainerReader reader = ContainerReader.open(container, new LoadedKey(keys.privateKey))) {
+			int chunkBytes = reader.getFormat().getChunkBytes();
+			assertArrayEquals(Arrays.copyOfRange(plain, chunkBytes, 2 * chunkBytes), reader.readChunk(1));
+			assertThrows(IOException.class, () -> reader.readChunk(0));
+		}
+	}
+	@Test
+	public void testRejectsOtherKey(@TempDir Path dir) throws Exception
+	{
+		Path container = encrypt(dir, new LoadedKey(KeySet.generateKeyPair(64).publicKey), new byte[100], 8);
+		LoadedKey other = new LoadedKey(KeySet.generateKeyPair(64).privateKey);
+		assertThrows(IOException.class, () -> ContainerReader.open(container, other));
+	}
+	@Test
+	public void testEmptyInput(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		Path container = encrypt(dir, new LoadedKey(keys.publicKey), new byte[0], 8);
+		try(ContainerReader reader = ContainerReader.open(container, new LoadedKey(keys.privateKey))) {
+			assertEquals(0L, reader.getLength());
+			assertEquals(0, reader.getChunkCount());
+		}
+	}
+	@Test
+	public void testCompressedChunks(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		StringBuilder log = new StringBuilder();
+		for(int i = 0; log.length() < 200000; i++)
+			log.append("2024-01-01 12:00:").append(i % 60).append(" INFO request ").append(i).append(" served\n");
+		byte[] plain = log.toString().getBytes(StandardCharsets.US_ASCII);
+		Path container = encrypt(dir, new LoadedKey(keys.publicKey), plain, 5000, ContainerFormat.FLAG_DEFLATE);
+		assertTrue(Files.size(container) * 4 < plain.length);
+		try(ContainerReader reader = ContainerReader.open(container, new LoadedKey(keys.privateKey))) {
+			assertTrue(reader.getFormat().isCompressed());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			reader.read(0L, Long.MAX_VALUE, out);
+			assertArrayEquals(plain, out.toByteArray());
+			int chunkBytes = reader.getFormat().getChunkBytes();
+			assertArrayEquals(Arrays.copyOfRange(plain, chunkBytes - 50, chunkBytes + 50), reader.read(chunkBytes - 50L, 100));
+		}
+	}
+	private static Path encrypt(Path dir, LoadedKey key, byte[] plain, int chunkBlocks) throws IOException
+	{
+		return encrypt(dir, key, plain, chunkBlocks, 0);
+	}
+	private static Path encrypt(Path dir, LoadedKey key, byte[] plain, int chunkBlocks, int flags) throws IOException
+	{
+		Path container = dir.resolve("data" + ContainerFormat.EXTENSION);
+		try(FileChannel channel = FileChannel.open(container, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				ContainerWriter writer = new ContainerWriter(channel, key, chunkBlocks, flags, null, 1)) {
+			// Uneven writes so chunks fill across calls
+			for(int off = 0; off < plain.length; off += 777)
+				writer.write(plain, off, Math.min(777, plain.length - off));
+		}
+		return container;
+	}
+}
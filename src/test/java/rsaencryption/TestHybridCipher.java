@@ -0,0 +1,58 @@
+package rsaencryption;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestHybridCipher
+{
+	@Test
+	public void testRoundTripAcrossChunks() throws Exception
+	{
+		for(int bits : new int[] {64, 512})
+		{
+			KeyPair keys = KeySet.generateKeyPair(bits);
+			for(int length : new int[] {0, 1, HybridCipher.CHUNK_BYTES, 2 * HybridCipher.CHUNK_BYTES + 123})
+			{
+				byte[] plain = new byte[length];
+				new Random(length).nextBytes(plain);
+				byte[] sealed = encrypt(plain, new LoadedKey(keys.publicKey));
+				assertArrayEquals(plain, decrypt(sealed, new LoadedKey(keys.privateKey)));
+			}
+		}
+	}
+	@Test
+	public void testDetectsTamperingAndTruncation() throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		LoadedKey privateKey = new LoadedKey(keys.privateKey);
+		byte[] plain = new byte[HybridCipher.CHUNK_BYTES + 10];
+		byte[] sealed = encrypt(plain, new LoadedKey(keys.publicKey));
+		byte[] altered = sealed.clone();
+		altered[altered.length - 20] ^= 1;
+		assertThrows(IOException.class, () -> decrypt(altered, privateKey));
+		// Dropping the final chunk must not pass as a shorter plaintext
+		byte[] truncated = Arrays.copyOf(sealed, sealed.length - (10 + 16 + 5));
+		assertThrows(IOException.class, () -> decrypt(truncated, privateKey));
+		LoadedKey other = new LoadedKey(KeySet.generateKeyPair(64).privateKey);
+		assertThrows(IOException.class, () -> decrypt(sealed, other));
+	}
+	private static byte[] encrypt(byte[] plain, LoadedKey key) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HybridCipher.encrypt(new ByteArrayInputStream(plain), out, key);
+		return out.toByteArray();
+	}
+	private static byte[] decrypt(byte[] sealed, LoadedKey key) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HybridCipher.decrypt(new ByteArrayInputStream(sealed), out, key);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,57 @@
+package rsaencryption;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class TestKeyCache
+{
+	@Test
+	public void testHitReturnsSameHandle(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey.ser").toString();
+		KeySet.CreateKeys(pub, dir.resolve("privateKey.ser").toString());
+		KeyCache cache = new KeyCache(4);
+
+		LoadedKey first = cache.get(pub);
+		assertSame(first, cache.get(pub));
+		assertEquals(RSA.readSerialisedKey(pub)[1], first.getModulus());
+	}
+	@Test
+	public void testModifiedFileIsReloaded(@TempDir Path dir) throws Exception
+	{
+		Path pub = dir.resolve("publicKey.ser");
+		KeySet.CreateKeys(pub.toString(), dir.resolve("privateKey.ser").toString());
+		KeyCache cache = new KeyCache(4, 0, TimeUnit.MILLISECONDS);
+
+		LoadedKey first = cache.get(pub.toString());
+		Files.setLastModifiedTime(pub, FileTime.fromMillis(Files.getLastModifiedTime(pub).toMillis() + 5000));
+		assertNotSame(first, cache.get(pub.toString()));
+	}
+	@Test
+	public void testLeastRecentlyUsedKeyIsEvicted(@TempDir Path dir) throws Exception
+	{
+		KeyCache cache = new KeyCache(2);
+		String[] paths = new String[3];
+		for(int i = 0; i < paths.length; i++)
+		{
+			paths[i] = dir.resolve("publicKey" + i + ".ser").toString();
+			KeySet.CreateKeys(paths[i], dir.resolve("privateKey" + i + ".ser").toString());
+		}
+		LoadedKey key0 = cache.get(paths[0]);
+		LoadedKey key1 = cache.get(paths[1]);
+		cache.get(paths[0]);
+		cache.get(paths[2]);
+
+		assertEquals(2, cache.size());
+		assertSame(key0, cache.get(paths[0]));
+		assertNotSame(key1, cache.get(paths[1]));
+	}
+}
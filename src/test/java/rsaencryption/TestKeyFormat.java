@@ -0,0 +1,66 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestKeyFormat
+{
+	@Test
+	public void testEncodeDecodeRoundTrip() throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(512);
+		Key publicKey = KeyFormat.decode(ByteBuffer.wrap(KeyFormat.encode(keys.publicKey)));
+		Key privateKey = KeyFormat.decode(ByteBuffer.wrap(KeyFormat.encode(keys.privateKey)));
+		
+		assertEquals(keys.publicKey.element1, publicKey.element1);
+		assertEquals(keys.publicKey.element2, publicKey.element2);
+		assertFalse(publicKey.hasCRT());
+		assertTrue(privateKey.hasCRT());
+		assertEquals(keys.privateKey.qInv, privateKey.qInv);
+	}
+	@Test
+	public void testConvertSerialisedKey(@TempDir Path dir) throws Exception
+	{
+		String ser = dir.resolve("privateKey.ser").toString();
+		String rsk = dir.resolve("privateKey" + KeyFormat.EXTENSION).toString();
+		KeySet.CreateKeys(dir.resolve("publicKey.ser").toString(), ser);
+		KeyFormat.convert(ser, rsk);
+		
+		LoadedKey fromSer = RSA.loadKey(ser);
+		LoadedKey fromRsk = RSA.loadKey(rsk);
+		assertEquals(fromSer.getModulus(), fromRsk.getModulus());
+		assertEquals(fromSer.getExponent(), fromRsk.getExponent());
+		assertEquals(fromSer.usesCRT(), fromRsk.usesCRT());
+		assertTrue(Files.size(Paths.get(rsk)) < Files.size(Paths.get(ser)));
+	}
+	@Test
+	public void testCreateKeysWritesBinaryFormat(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey" + KeyFormat.EXTENSION).toString();
+		String pri = dir.resolve("privateKey" + KeyFormat.EXTENSION).toString();
+		KeySet.CreateKeys(pub, pri, 256);
+		
+		BigInteger cipher = RSA.performRSA(new BigInteger[] {BigInteger.valueOf(99L)}, pub)[0];
+		assertEquals(BigInteger.valueOf(99L), RSA.performRSA(new BigInteger[] {cipher}, pri)[0]);
+	}
+	@Test
+	public void testTruncatedKeyIsRejected()
+	{
+		byte[] encoded = KeyFormat.encode(KeySet.generateKeyPair(64).privateKey);
+		assertThrows(IOException.class, () -> KeyFormat.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length - 3))));
+		encoded[0] = 'X';
+		assertThrows(IOException.class, () -> KeyFormat.decode(ByteBuffer.wrap(encoded)));
+	}
+}
@@ -0,0 +1,43 @@
+package rsaencryption;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestKeyPairPool
+{
+	@Test
+	public void testPoolFillsToHighWaterAndIssuesPairs() throws Exception
+	{
+		try(KeyPairPool pool = new KeyPairPool(256, 4, 2)) {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while(pool.size() < 4 && System.nanoTime() < deadline)
+				Thread.sleep(10);
+			assertEquals(4, pool.size());
+			
+			KeyPair keys = pool.take();
+			assertEquals(1, pool.getHits());
+			assertEquals(0, pool.getMisses());
+			assertEquals(256, keys.publicKey.element2.bitLength());
+			BigInteger cipher = BigInteger.valueOf(99L).modPow(keys.publicKey.element1, keys.publicKey.element2);
+			assertEquals(BigInteger.valueOf(99L), new LoadedKey(keys.privateKey).apply(cipher));
+			
+			assertNotNull(pool.take(30, TimeUnit.SECONDS));
+			assertTrue(pool.getGenerated() >= 4);
+		}
+	}
+	@Test
+	public void testClosedPoolStillIssuesPairs()
+	{
+		KeyPairPool pool = new KeyPairPool(128, 1, 1);
+		pool.close();
+		assertNotNull(pool.take());
+		assertNotNull(pool.take());
+		assertEquals(2, pool.getHits() + pool.getMisses());
+		assertTrue(pool.getMisses() >= 1);
+	}
+}
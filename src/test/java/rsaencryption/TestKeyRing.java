@@ -0,0 +1,162 @@
+package rsaencryption;
+
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestKeyRing
+{
+	@Test
+	public void testImportedKeysMatchTheirFiles(@TempDir Path dir) throws Exception
+	{
+		List<Path> files = new ArrayList<>();
+		List<Path> publicFiles = new ArrayList<>();
+		List<Path> privateFiles = new ArrayList<>();
+		for(int i = 0; i < 3; i++)
+		{
+			publicFiles.add(dir.resolve("publicKey" + i + ".ser"));
+			privateFiles.add(dir.resolve("privateKey" + i + ".ser"));
+			files.add(publicFiles.get(i));
+			files.add(privateFiles.get(i));
+			KeySet.CreateKeys(publicFiles.get(i).toString(), privateFiles.get(i).toString());
+		}
+		Path ringPath = dir.resolve("keys" + KeyRing.EXTENSION);
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			assertEquals(3, ring.importFiles(publicFiles, false));
+			assertEquals(3, ring.importFiles(privateFiles, true));
+			assertEquals(0, ring.importFiles(privateFiles, true));
+		}
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			assertEquals(6, ring.size());
+			for(int i = 0; i < files.size(); i++)
+			{
+				LoadedKey expected = RSA.loadKey(files.get(i).toString());
+				LoadedKey found = ring.get(expected.getKeyId(), i % 2 == 1);
+				assertEquals(expected.getExponent(), found.getExponent());
+				assertEquals(expected.getModulus(), found.getModulus());
+				assertEquals(expected.usesCRT(), found.usesCRT());
+				assertSame(found, ring.get(expected.getKeyId(), i % 2 == 1));
+			}
+			assertNull(ring.get(12345L, false));
+			assertFalse(ring.contains(12345L, true));
+		}
+	}
+	@Test
+	public void testRingGrowsAndKeepsKeys(@TempDir Path dir) throws Exception
+	{
+		Path ringPath = dir.resolve("keys" + KeyRing.EXTENSION);
+		// Distinct ids only, the ring rightly keeps one key per id and kind
+		Map<Long, Key> distinct = new LinkedHashMap<>();
+		while(distinct.size() < KeyRing.DEFAULT_SLOTS)
+		{
+			KeyPair pair = KeySet.generateKeyPair(KeySet.DEFAULT_MODULUS_BITS);
+			distinct.putIfAbsent(new LoadedKey(pair.privateKey).getKeyId(), pair.privateKey);
+		}
+		List<Key> keys = new ArrayList<>(distinct.values());
+		long[] ids = new long[keys.size()];
+		int next = 0;
+		for(long id : distinct.keySet())
+			ids[next++] = id;
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			assertEquals(KeyRing.DEFAULT_SLOTS, ring.getSlots());
+			for(Key key : keys)
+				ring.add(key, true);
+			assertTrue(ring.getSlots() > KeyRing.DEFAULT_SLOTS);
+		}
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			assertEquals(keys.size(), ring.size());
+			assertArrayEquals(ids, ring.keyIds());
+			for(int i = 0; i < ids.length; i++)
+				assertEquals(keys.get(i).element2, ring.get(ids[i], true).getModulus());
+		}
+	}
+	@Test
+	public void testUnfinishedAppendIsIgnored(@TempDir Path dir) throws Exception
+	{
+		Path ringPath = dir.resolve("keys" + KeyRing.EXTENSION);
+		KeyPair first = KeySet.generateKeyPair(KeySet.DEFAULT_MODULUS_BITS);
+		KeyPair second = KeySet.generateKeyPair(KeySet.DEFAULT_MODULUS_BITS);
+		long size;
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			ring.add(first.publicKey, false);
+			size = Files.size(ringPath);
+			ring.add(second.publicKey, false);
+		}
+		// Put the header back as it was before the second append, as if it had died there
+		try(KeyRing ring = KeyRing.open(ringPath);
+				RandomAccessFile file = new RandomAccessFile(ringPath.toFile(), "rw")) {
+			file.seek(16);
+			file.writeLong(1L);
+			file.writeLong(size);
+		}
+		long secondId = new LoadedKey(second.publicKey).getKeyId();
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			assertEquals(1, ring.size());
+			assertFalse(ring.contains(secondId, false));
+			assertTrue(ring.contains(new LoadedKey(first.publicKey).getKeyId(), false));
+			assertTrue(ring.add(second.publicKey, false));
+			assertEquals(second.publicKey.element2, ring.get(secondId, false).getModulus());
+		}
+	}
+	@Test
+	public void testSlotOfUnfinishedAppendStaysFree(@TempDir Path dir) throws Exception
+	{
+		Path ringPath = dir.resolve("keys" + KeyRing.EXTENSION);
+		KeyPair first = KeySet.generateKeyPair(KeySet.DEFAULT_MODULUS_BITS);
+		KeyPair lost = KeySet.generateKeyPair(KeySet.DEFAULT_MODULUS_BITS);
+		KeyPair third = KeySet.generateKeyPair(KeySet.DEFAULT_MODULUS_BITS);
+		long size;
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			ring.add(first.publicKey, false);
+			size = Files.size(ringPath);
+			ring.add(lost.publicKey, false);
+		}
+		try(RandomAccessFile file = new RandomAccessFile(ringPath.toFile(), "rw")) {
+			file.seek(16);
+			file.writeLong(1L);
+			file.writeLong(size);
+		}
+		// A different key is appended where the lost one was written
+		long lostId = new LoadedKey(lost.publicKey).getKeyId();
+		long thirdId = new LoadedKey(third.publicKey).getKeyId();
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			assertTrue(ring.add(third.publicKey, false));
+		}
+		try(KeyRing ring = KeyRing.open(ringPath)) {
+			assertEquals(2, ring.size());
+			assertFalse(ring.contains(lostId, false));
+			assertNull(ring.get(lostId, false));
+			assertEquals(third.publicKey.element2, ring.get(thirdId, false).getModulus());
+			assertTrue(ring.add(lost.publicKey, false));
+			assertEquals(lost.publicKey.element2, ring.get(lostId, false).getModulus());
+		}
+	}
+	@Test
+	public void testKindComesFromTheCaller(@TempDir Path dir) throws Exception
+	{
+		// A legacy (d, n) key with a small modulus: no CRT factors and a narrow private exponent
+		Key publicKey = new Key(BigInteger.valueOf(17), BigInteger.valueOf(3233));
+		Key privateKey = new Key(BigInteger.valueOf(2753), BigInteger.valueOf(3233));
+		long keyId = new LoadedKey(publicKey).getKeyId();
+		try(KeyRing ring = KeyRing.open(dir.resolve("keys" + KeyRing.EXTENSION))) {
+			assertTrue(ring.add(publicKey, false));
+			assertTrue(ring.add(privateKey, true));
+			assertEquals(BigInteger.valueOf(17), ring.get(keyId, false).getExponent());
+			assertEquals(BigInteger.valueOf(2753), ring.get(keyId, true).getExponent());
+		}
+	}
+}
@@ -1,10 +1,18 @@
 package rsaencryption;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
-import static org.junit.jupiter.api.Assertions.assertEquals;;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestKeySet 
 {
@@ -33,4 +41,61 @@ public class TestKeySet
 			assertEquals(equals, true);
 		} catch (IOException | ClassNotFoundException e) {}
 	}
+	@Test
+	public void testPrivateKeyCRTMatchesFullExponent(@TempDir Path dir) throws Exception
+	{
+		System.out.println("\nTesting CRT private key operation");
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(dir.resolve("publicKey.ser").toString(), pri);
+		LoadedKey key = RSA.loadKey(pri);
+		BigInteger[] d = RSA.readSerialisedKey(pri);
+		Random rand = new Random(42);
+		
+		System.out.println("Uses CRT: " + key.usesCRT());
+		for(int i = 0; i < 100; i++)
+		{
+			BigInteger block = new BigInteger(d[1].bitLength() - 1, rand);
+			assertEquals(block.modPow(d[0], d[1]), key.apply(block));
+		}
+	}
+	@Test
+	public void testKeyWithoutCRTStillLoads(@TempDir Path dir) throws Exception
+	{
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(dir.resolve("publicKey.ser").toString(), pri);
+		BigInteger[] d = RSA.readSerialisedKey(pri);
+		try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(pri))) {
+			out.writeObject(new Key(d[0], d[1]));
+		}
+		LoadedKey key = RSA.loadKey(pri);
+		
+		assertFalse(key.usesCRT());
+		assertEquals(BigInteger.valueOf(99L).modPow(d[0], d[1]), key.apply(BigInteger.valueOf(99L)));
+	}
+	@Test
+	public void testConfigurableModulusSize()
+	{
+		for(int bits : new int[] {16, 64, 100, 512})
+		{
+			KeyPair keys = KeySet.generateKeyPair(bits);
+			assertEquals(bits, keys.publicKey.element2.bitLength());
+			BigInteger message = BigInteger.valueOf(99L);
+			BigInteger cipher = message.modPow(keys.publicKey.element1, keys.publicKey.element2);
+			assertEquals(message, new LoadedKey(keys.privateKey).apply(cipher));
+		}
+	}
+	@Test
+	public void testMixedKeyFormatsFollowEachPath(@TempDir Path dir) throws Exception
+	{
+		Path pub = dir.resolve("publicKey" + KeyFormat.EXTENSION);
+		Path pri = dir.resolve("privateKey");
+		KeyPair keys = KeySet.generateKeyPair(KeySet.DEFAULT_MODULUS_BITS);
+		KeySet.writeKeyPair(keys, pub.toString(), pri.toString());
+		
+		assertTrue(Files.exists(pub));
+		assertFalse(Files.exists(dir.resolve("publicKey" + KeyFormat.EXTENSION + ".ser")));
+		assertTrue(Files.exists(dir.resolve("privateKey.ser")));
+		assertEquals(keys.publicKey.element1, KeyFormat.read(pub.toString()).element1);
+		assertEquals(keys.privateKey.element1, RSA.readSerialisedKey(dir.resolve("privateKey.ser").toString())[0]);
+	}
 }
@@ -0,0 +1,73 @@
+package rsaencryption;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestMappedFileCipher
+{
+	@Test
+	public void testMatchesStreamingAcrossWindows(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(512);
+		LoadedKey publicKey = new LoadedKey(keys.publicKey);
+		LoadedKey privateKey = new LoadedKey(keys.privateKey);
+		BlockFormat format = publicKey.getBlockFormat();
+		byte[] plain = new byte[format.getDataBytes() * 100];
+		new Random(7).nextBytes(plain);
+		Path input = dir.resolve("plain.bin");
+		Path mapped = dir.resolve("mapped.bin");
+		Path streamed = dir.resolve("streamed.bin");
+		Path decrypted = dir.resolve("decrypted.bin");
+		Files.write(input, plain);
+		// Windows of 7 blocks leave a short final window
+		MappedFileCipher.transform(input, mapped, publicKey, new BlockCodec(format.getDataBytes()), new BlockCodec(format.getBlockBytes()), format, null, 1, 7);
+		RSA.encryptFile(input.toString(), streamed.toString(), writeKey(dir, keys.publicKey));
+		assertEquals(format.encryptedLength(plain.length), Files.size(mapped));
+		assertArrayEquals(Arrays.copyOf(Files.readAllBytes(streamed), (int) Files.size(mapped)), Files.readAllBytes(mapped));
+		MappedFileCipher.transform(mapped, decrypted, privateKey, new BlockCodec(format.getBlockBytes()), new BlockCodec(format.getDataBytes()), format, null, 1, 7);
+		assertArrayEquals(plain, Files.readAllBytes(decrypted));
+	}
+	@Test
+	public void testFileRoundTripWithKeyPaths(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		// Not a whole number of blocks, the trailer restores the exact length
+		byte[] plain = new byte[RSA.loadKey(pub).getBlockFormat().getDataBytes() * 5000 + 3];
+		new Random(11).nextBytes(plain);
+		Path input = dir.resolve("plain.bin");
+		Path encrypted = dir.resolve("encrypted.bin");
+		Path decrypted = dir.resolve("decrypted.bin");
+		Files.write(input, plain);
+		MappedFileCipher.encrypt(input.toString(), encrypted.toString(), pub, null, 1);
+		MappedFileCipher.decrypt(encrypted.toString(), decrypted.toString(), pri, null, 1);
+		assertArrayEquals(plain, Files.readAllBytes(decrypted));
+		Path streamed = dir.resolve("streamed.bin");
+		RSA.encryptFile(input.toString(), streamed.toString(), pub);
+		assertArrayEquals(Files.readAllBytes(streamed), Files.readAllBytes(encrypted));
+	}
+	@Test
+	public void testEmptyFile(@TempDir Path dir) throws Exception
+	{
+		LoadedKey key = new LoadedKey(KeySet.generateKeyPair(64).publicKey);
+		Path input = dir.resolve("empty.bin");
+		Path output = dir.resolve("out.bin");
+		Files.write(input, new byte[0]);
+		MappedFileCipher.encrypt(input, output, key, key.getBlockFormat(), null, 1);
+		assertEquals(LengthTrailer.BYTES, Files.size(output));
+	}
+	private static String writeKey(Path dir, Key key) throws Exception
+	{
+		String path = dir.resolve("key" + KeyFormat.EXTENSION).toString();
+		KeyFormat.write(key, path);
+		return path;
+	}
+}
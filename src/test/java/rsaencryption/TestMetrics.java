@@ -0,0 +1,48 @@
+package rsaencryption;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMetrics
+{
+	@Test
+	public void testStagesAreCountedOnlyWhileEnabled() throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		LoadedKey key = new LoadedKey(keys.publicKey);
+		BlockFormat format = key.getBlockFormat();
+		byte[] plain = new byte[format.getDataBytes() * 100];
+		try {
+			Metrics.setEnabled(false);
+			long before = Metrics.snapshot().get("pad.calls");
+			RSA.padBytes(plain, format);
+			assertEquals(before, (long) Metrics.snapshot().get("pad.calls"));
+			Metrics.setEnabled(true);
+			Map<String, Long> start = Metrics.snapshot();
+			BigInteger[] blocks = RSA.bytesToLongs(RSA.padBytes(plain, format), format);
+			RSA.longsToBytes(RSA.performRSA(blocks, key), format);
+			KeySet.generatePrime(128);
+			Map<String, Long> end = Metrics.snapshot();
+			assertEquals(1L, end.get("pad.calls") - start.get("pad.calls"));
+			assertEquals((long) plain.length, end.get("pad.bytes") - start.get("pad.bytes"));
+			assertEquals(100L, end.get("bytes_to_blocks.blocks") - start.get("bytes_to_blocks.blocks"));
+			assertEquals(100L, end.get("perform_rsa.blocks") - start.get("perform_rsa.blocks"));
+			assertEquals(1L, end.get("blocks_to_bytes.calls") - start.get("blocks_to_bytes.calls"));
+			assertEquals(1L, end.get("generate_prime.calls") - start.get("generate_prime.calls"));
+			assertTrue(end.get("primes.tested") > start.get("primes.tested"));
+			assertTrue(end.get("perform_rsa.p99_ns") >= end.get("perform_rsa.p50_ns"));
+			assertTrue(Metrics.toJson().contains("\"perform_rsa\":{\"calls\":"));
+			Object json = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(Metrics.OBJECT_NAME), "Json");
+			assertTrue(((String) json).startsWith("{"));
+		} finally {
+			Metrics.setEnabled(false);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package rsaencryption;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMontgomeryEngine
+{
+	@Test
+	public void testMatchesBigIntegerModPow()
+	{
+		Random rand = new Random(1);
+		for(int bits : new int[] {3, 17, 32, 62, 63, 64})
+		{
+			for(int trial = 0; trial < 200; trial++)
+			{
+				BigInteger modulus = new BigInteger(bits, rand).setBit(bits - 1).setBit(0);
+				BigInteger exponent = new BigInteger(64, rand);
+				BigInteger base = new BigInteger(64, rand);
+				MontgomeryEngine engine = new MontgomeryEngine(exponent, modulus);
+				assertEquals(base.modPow(exponent, modulus), MontgomeryEngine.toBigInteger(engine.modPow(base.longValue())));
+			}
+		}
+	}
+	@Test
+	public void testWindowScheduleEdgeExponents()
+	{
+		BigInteger modulus = new BigInteger("18446744073709551557"); // largest 64 bit prime
+		long[] exponents = {0L, 1L, 2L, 3L, 17L, 1L << 40, (1L << 40) + 1, 0x5555555555555555L, -1L};
+		for(long e : exponents)
+		{
+			BigInteger exponent = MontgomeryEngine.toBigInteger(e);
+			MontgomeryEngine engine = new MontgomeryEngine(exponent, modulus);
+			for(long base : new long[] {0L, 1L, 2L, 12345678901L, -2L})
+				assertEquals(MontgomeryEngine.toBigInteger(base).modPow(exponent, modulus),
+						MontgomeryEngine.toBigInteger(engine.modPow(base)), "exponent " + exponent + " base " + base);
+		}
+		assertEquals(3, new MontgomeryEngine(MontgomeryEngine.toBigInteger(-1L), modulus).getWindowBits());
+		assertEquals(1, new MontgomeryEngine(BigInteger.valueOf(17L), modulus).getWindowBits());
+	}
+	@Test
+	public void testSharedEngineAcrossThreads()
+	{
+		BigInteger modulus = BigInteger.probablePrime(62, new Random(4));
+		BigInteger exponent = BigInteger.valueOf(65537);
+		MontgomeryEngine engine = new MontgomeryEngine(exponent, modulus);
+		// Single block calls on several threads at once, each using its own table
+		long mismatches = LongStream.range(1, 200000).parallel()
+				.filter(base -> engine.modPow(base) != BigInteger.valueOf(base).modPow(exponent, modulus).longValue())
+				.count();
+		assertEquals(0L, mismatches);
+	}
+	@Test
+	public void testUnsignedMultiplyHigh()
+	{
+		Random rand = new Random(2);
+		BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		for(int trial = 0; trial < 1000; trial++)
+		{
+			long x = rand.nextLong(), y = rand.nextLong();
+			BigInteger product = MontgomeryEngine.toBigInteger(x).multiply(MontgomeryEngine.toBigInteger(y));
+			assertEquals(product.shiftRight(64).and(mask).longValue(), MontgomeryEngine.unsignedMultiplyHigh(x, y));
+		}
+	}
+	@Test
+	public void testLongPathMatchesBigIntegerPath()
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		LoadedKey publicKey = new LoadedKey(keys.publicKey);
+		LoadedKey privateKey = new LoadedKey(keys.privateKey);
+		assertTrue(publicKey.usesLongPath());
+		assertFalse(new LoadedKey(KeySet.generateKeyPair(128).publicKey).usesLongPath());
+		Random rand = new Random(3);
+		long[] longs = new long[2000];
+		BigInteger[] blocks = new BigInteger[longs.length];
+		for(int i = 0; i < longs.length; i++)
+		{
+			longs[i] = rand.nextLong() >>> 8;
+			blocks[i] = BigInteger.valueOf(longs[i]);
+		}
+		long[] encrypted = RSA.performRSA(longs, publicKey);
+		BigInteger[] expected = new BigInteger[blocks.length];
+		for(int i = 0; i < blocks.length; i++)
+		{
+			expected[i] = blocks[i].modPow(keys.publicKey.element1, keys.publicKey.element2);
+			assertEquals(expected[i], MontgomeryEngine.toBigInteger(encrypted[i]));
+		}
+		assertArrayEquals(longs, RSA.performRSA(encrypted, privateKey));
+	}
+}
@@ -0,0 +1,48 @@
+package rsaencryption;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class TestMultiRecipient
+{
+	@Test
+	public void testEachOutputMatchesSingleKeyEncryption(@TempDir Path dir) throws Exception
+	{
+		// Two block widths, one of them on the long path, and a block split across chunks
+		int[] modulusBits = {64, 64, 512, 128};
+		List<String> keys = new ArrayList<>();
+		List<String> outputs = new ArrayList<>();
+		for(int i = 0; i < modulusBits.length; i++)
+		{
+			KeyPair pair = KeySet.generateKeyPair(modulusBits[i]);
+			String pub = dir.resolve("public" + i + ".ser").toString();
+			KeySet.writeKeyPair(pair, pub, dir.resolve("private" + i + ".ser").toString());
+			keys.add(pub);
+			outputs.add(dir.resolve("out" + i + ".bin").toString());
+		}
+		byte[] plain = new byte[MultiRecipient.CHUNK_BYTES * 2 + 12345];
+		new Random(19).nextBytes(plain);
+		Path input = dir.resolve("plain.bin");
+		Files.write(input, plain);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			MultiRecipient.encryptFile(input.toString(), keys, outputs, pool);
+		} finally {
+			pool.shutdown();
+		}
+		Path single = dir.resolve("single.bin");
+		for(int i = 0; i < keys.size(); i++)
+		{
+			RSA.encryptFile(input.toString(), single.toString(), keys.get(i));
+			assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(dir.resolve("out" + i + ".bin")), "key " + i);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package rsaencryption;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class TestPipelinedCipher
+{
+	@Test
+	public void testMatchesStreamingWithAndWithoutWorkers() throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(512);
+		LoadedKey publicKey = new LoadedKey(keys.publicKey);
+		LoadedKey privateKey = new LoadedKey(keys.privateKey);
+		// Several chunks and a partial final block
+		byte[] plain = new byte[publicKey.getBlockFormat().getDataBytes() * PipelinedCipher.CHUNK_BLOCKS * 3 + 100];
+		new Random(23).nextBytes(plain);
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		RSA.encryptStream(new ByteArrayInputStream(plain), streamed, publicKey, null, 1);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			ByteArrayOutputStream piped = new ByteArrayOutputStream();
+			PipelinedCipher.encrypt(new ByteArrayInputStream(plain), piped, publicKey, pool, 1);
+			assertArrayEquals(streamed.toByteArray(), piped.toByteArray());
+			ByteArrayOutputStream opened = new ByteArrayOutputStream();
+			PipelinedCipher.decrypt(new ByteArrayInputStream(piped.toByteArray()), opened, privateKey, null, 2);
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			RSA.decryptStream(new ByteArrayInputStream(streamed.toByteArray()), expected, privateKey, null, 1);
+			assertArrayEquals(expected.toByteArray(), opened.toByteArray());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	@Test
+	public void testReadFailureReachesCaller() throws Exception
+	{
+		LoadedKey key = new LoadedKey(KeySet.generateKeyPair(64).publicKey);
+		InputStream broken = new InputStream() {
+			private int left = 100000;
+			@Override
+			public int read() throws IOException
+			{
+				if(--left < 0)
+					throw new IOException("disk gone");
+				return 1;
+			}
+		};
+		assertThrows(IOException.class, () -> PipelinedCipher.encrypt(broken, new ByteArrayOutputStream(), key, null, 2));
+	}
+	@Test
+	public void testThrowingSourceReachesCaller() throws Exception
+	{
+		LoadedKey key = new LoadedKey(KeySet.generateKeyPair(64).publicKey);
+		InputStream broken = new InputStream() {
+			private int left = 100000;
+			@Override
+			public int read()
+			{
+				if(--left < 0)
+					throw new IllegalStateException("source failed");
+				return 1;
+			}
+		};
+		assertTimeoutPreemptively(Duration.ofSeconds(30),
+				() -> assertThrows(IllegalStateException.class, () -> PipelinedCipher.encrypt(broken, new ByteArrayOutputStream(), key, null, 2)));
+	}
+	@Test
+	public void testShutDownExecutorReachesCaller() throws Exception
+	{
+		LoadedKey key = new LoadedKey(KeySet.generateKeyPair(64).publicKey);
+		ExecutorService workers = Executors.newFixedThreadPool(1);
+		workers.shutdown();
+		byte[] plain = new byte[1000];
+		assertTimeoutPreemptively(Duration.ofSeconds(30),
+				() -> assertThrows(RejectedExecutionException.class, () -> PipelinedCipher.encrypt(new ByteArrayInputStream(plain), new ByteArrayOutputStream(), key, workers, 2)));
+	}
+}
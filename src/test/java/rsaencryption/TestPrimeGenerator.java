@@ -0,0 +1,41 @@
+package rsaencryption;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPrimeGenerator
+{
+	@Test
+	public void testGeneratedPrimesHaveExactBitLength()
+	{
+		Random rand = new Random(1);
+		for(int bits : new int[] {2, 3, 8, 11, 16, 32, 64, 65, 256})
+		{
+			BigInteger prime = PrimeGenerator.generate(bits, rand);
+			assertEquals(bits, prime.bitLength());
+			assertTrue(prime.isProbablePrime(64), prime + " is not prime");
+		}
+	}
+	@Test
+	public void testParallelSearch()
+	{
+		BigInteger prime = PrimeGenerator.generate(512, 4);
+		assertEquals(512, prime.bitLength());
+		assertTrue(prime.isProbablePrime(64));
+	}
+	@Test
+	public void testRejectsFermatPseudoPrimes()
+	{
+		Random rand = new Random(2);
+		// Carmichael numbers and base 2 Fermat pseudo-primes
+		for(long n : new long[] {341L, 561L, 1105L, 1729L, 2465L, 4033L, 3215031751L, 2152302898747L})
+			assertFalse(PrimeGenerator.isProbablePrime(BigInteger.valueOf(n), rand), n + " accepted");
+		for(long n : new long[] {2L, 3L, 2039L, 2053L, 4294967291L})
+			assertTrue(PrimeGenerator.isProbablePrime(BigInteger.valueOf(n), rand), n + " rejected");
+	}
+}
@@ -1,7 +1,18 @@
 package rsaencryption;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 
@@ -28,6 +39,21 @@ public class TestRSA
 		
 		assertArrayEquals(out2, in);
 	}
+	@Test
+	public void testPadBytesPartialBlock()
+	{
+		System.out.println("\ntestPadBytesPartialBlock");
+		byte[] in = new byte[] {1, 2, 3, 4, 5, 6};
+		byte[] expected = new byte[] {0, 0, 0, 0, 1, 2, 3, 4, 0, 0, 0, 0, 5, 6};
+		
+		byte[] out1 = RSA.padBytes(in);
+		assertArrayEquals(expected, out1);
+		assertEquals(out1.length, RSA.paddedLength(in.length));
+		
+		ByteBuffer buffer = ByteBuffer.allocate(RSA.unpaddedLength(out1.length));
+		RSA.unpadBytes(out1, 0, out1.length, buffer);
+		assertArrayEquals(in, buffer.array());
+	}
 	@Test 
 	public void testLongsToBytesToLongs()
 	{
@@ -118,6 +144,153 @@ public class TestRSA
 		} catch (IOException e) {} catch (ClassNotFoundException e) {}
 	}
 	@Test
+	public void testStreamEncryptionMatchesArrayPipeline(@TempDir Path dir) throws Exception
+	{
+		System.out.println("\ntestStreamEncryptionMatchesArrayPipeline");
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		BlockFormat format = RSA.loadKey(pub).getBlockFormat();
+		byte[] in = new byte[format.getDataBytes() * 6];
+		for(int i = 0; i < in.length; i++)
+			in[i] = (byte) (i * 37);
+		
+		byte[] expected = RSA.longsToBytes(RSA.performRSA(RSA.bytesToLongs(RSA.padBytes(in, format), format), pub), format);
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		RSA.encryptStream(new ByteArrayInputStream(in), encrypted, pub);
+		assertArrayEquals(expected, encrypted.toByteArray());
+		
+		ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+		RSA.decryptStream(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, pri);
+		assertArrayEquals(in, decrypted.toByteArray());
+	}
+	@Test
+	public void testLegacyOptionReadsOriginalLayout(@TempDir Path dir) throws Exception
+	{
+		System.out.println("\ntestLegacyOptionReadsOriginalLayout");
+		BigInteger n = new BigInteger("4611685975477714963");
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(pub))) {
+			out.writeObject(new Key(BigInteger.valueOf(17), n));
+		}
+		try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(pri))) {
+			out.writeObject(new Key(new BigInteger("542551290727382081"), n));
+		}
+		byte[] in = "Blocks in reverse".getBytes(StandardCharsets.US_ASCII);
+		// Written by the original padBytes, bytesToLongs, performRSA and longsToBytes with these keys; the blocks are in reverse order
+		byte[] original = hex("093bc9d1a24eb3080219a4d554871ddf12a365471c2ef44d290e5199f211fa0e00e832c114e87d53");
+		Path input = dir.resolve("in.bin");
+		Path encrypted = dir.resolve("in.enc");
+		Path decrypted = dir.resolve("in.dec");
+		Files.write(input, in);
+		
+		RSA.main(new String[] {"-legacy", "-e", pub, input.toString(), encrypted.toString()});
+		assertArrayEquals(original, Files.readAllBytes(encrypted));
+		RSA.main(new String[] {"-legacy", "-d", pri, encrypted.toString(), decrypted.toString()});
+		// The layout records no length, the zero fill of the last block stays as it did originally
+		assertArrayEquals(Arrays.copyOf(in, 20), Files.readAllBytes(decrypted));
+		
+		// Enough blocks to be reversed in several batches from each end
+		byte[] large = new byte[4 * 40001 + 3];
+		new Random(19).nextBytes(large);
+		Files.write(input, large);
+		Path inOrder = dir.resolve("in.ordered");
+		RSA.main(new String[] {"-legacy", "-e", pub, input.toString(), encrypted.toString()});
+		RSA.encryptFile(input.toString(), inOrder.toString(), pub, BlockFormat.LEGACY, null, 1);
+		byte[] reversed = Files.readAllBytes(encrypted);
+		byte[] ordered = Files.readAllBytes(inOrder);
+		assertEquals(ordered.length, reversed.length);
+		for(int i = 0; i < ordered.length; i += 8)
+			assertArrayEquals(Arrays.copyOfRange(ordered, i, i + 8), Arrays.copyOfRange(reversed, reversed.length - i - 8, reversed.length - i));
+		RSA.main(new String[] {"-legacy", "-d", pri, encrypted.toString(), decrypted.toString()});
+		assertArrayEquals(Arrays.copyOf(large, 4 * 40002), Files.readAllBytes(decrypted));
+	}
+	private static byte[] hex(String digits)
+	{
+		byte[] bytes = new byte[digits.length() / 2];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) Integer.parseInt(digits.substring(2 * i, 2 * i + 2), 16);
+		return bytes;
+	}
+	@Test
+	public void testCommandLineKeepsExactLength(@TempDir Path dir) throws Exception
+	{
+		System.out.println("\ntestCommandLineKeepsExactLength");
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		int dataBytes = RSA.loadKey(pub).getBlockFormat().getDataBytes();
+		String[][] modes = {{}, {"-p", "2"}, {"-m"}, {"-resume"}};
+		Random random = new Random(17);
+		// Lengths that end part way through a block, with zero bytes at the end
+		for(int length : new int[] {0, 13, dataBytes * 3 + 1, dataBytes * 5000 + dataBytes - 1})
+		{
+			byte[] in = new byte[length];
+			random.nextBytes(in);
+			if(length > 0)
+				in[length - 1] = 0;
+			Path input = dir.resolve("in.bin");
+			Files.write(input, in);
+			for(String[] encryptMode : modes)
+			{
+				Path encrypted = dir.resolve("in.enc");
+				RSA.main(command(encryptMode, "-e", pub, input, encrypted));
+				// Every mode reads what every other one writes
+				for(String[] decryptMode : modes)
+				{
+					Path decrypted = dir.resolve("in.dec");
+					RSA.main(command(decryptMode, "-d", pri, encrypted, decrypted));
+					assertArrayEquals(in, Files.readAllBytes(decrypted), String.join(" ", encryptMode) + " then " + String.join(" ", decryptMode) + ", " + length + " bytes");
+				}
+			}
+		}
+	}
+	private static String[] command(String[] mode, String operation, String key, Path input, Path output)
+	{
+		String[] args = Arrays.copyOf(mode, mode.length + 4);
+		args[mode.length] = operation;
+		args[mode.length + 1] = key;
+		args[mode.length + 2] = input.toString();
+		args[mode.length + 3] = output.toString();
+		return args;
+	}
+	@Test
+	public void testLargeKeyStreamRoundTrip(@TempDir Path dir) throws Exception
+	{
+		System.out.println("\ntestLargeKeyStreamRoundTrip");
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri, 512);
+		LoadedKey key = RSA.loadKey(pub);
+		assertEquals(new BlockFormat(63, 64), key.getBlockFormat());
+		byte[] in = new byte[63 * 5];
+		new Random(7).nextBytes(in);
+		
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		RSA.encryptStream(new ByteArrayInputStream(in), encrypted, pub);
+		assertEquals(64 * 5, encrypted.size());
+		ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+		RSA.decryptStream(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, pri);
+		assertArrayEquals(in, decrypted.toByteArray());
+	}
+	@Test
+	public void testParallelRSAMatchesSequential(@TempDir Path dir) throws Exception
+	{
+		System.out.println("\ntestParallelRSAMatchesSequential");
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		BigInteger[] in = new BigInteger[RSA.PARALLEL_THRESHOLD * 3 + 7];
+		for(int i = 0; i < in.length; i++)
+			in[i] = BigInteger.valueOf(i * 7919L);
+		
+		BigInteger[] sequential = RSA.performRSA(in, pub);
+		BigInteger[] parallel = RSA.performRSA(in, pub, 4);
+		assertArrayEquals(sequential, parallel);
+		assertArrayEquals(in, RSA.performRSA(parallel, pri, 4));
+	}
+	@Test
 	public void testBytesToLongsToBytes()
 	{
 		System.out.println("\ntestBytesToLongsToBytes");
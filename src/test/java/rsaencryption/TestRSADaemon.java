@@ -0,0 +1,129 @@
+package rsaencryption;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRSADaemon
+{
+	@Test
+	public void testFileAndStreamRequests(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		int dataBytes = RSA.loadKey(pub).getBlockFormat().getDataBytes();
+		byte[] plain = new byte[dataBytes * 40000];
+		new Random(9).nextBytes(plain);
+		Path input = dir.resolve("plain.bin");
+		Path encrypted = dir.resolve("encrypted.bin");
+		Path decrypted = dir.resolve("decrypted.bin");
+		Files.write(input, plain);
+		Path token = dir.resolve("daemon.token");
+		try(RSADaemon daemon = new RSADaemon(0, 2, token).start();
+				RSAClient client = new RSAClient(daemon.getPort(), token)) {
+			client.ping();
+			client.encryptFile(pub, input.toString(), encrypted.toString());
+			client.decryptFile(pri, encrypted.toString(), decrypted.toString());
+			assertArrayEquals(plain, Files.readAllBytes(decrypted));
+			// Streams larger than the socket buffers, on the same connection
+			ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+			client.transformStream(true, pub, new ByteArrayInputStream(plain), sealed);
+			// Files end with a length trailer, streams do not
+			assertArrayEquals(Arrays.copyOf(Files.readAllBytes(encrypted), sealed.size()), sealed.toByteArray());
+			assertEquals(sealed.size() + LengthTrailer.BYTES, Files.size(encrypted));
+			ByteArrayOutputStream opened = new ByteArrayOutputStream();
+			client.transformStream(false, pri, new ByteArrayInputStream(sealed.toByteArray()), opened);
+			assertArrayEquals(plain, opened.toByteArray());
+		}
+	}
+	@Test
+	public void testErrorsKeepConnectionUsable(@TempDir Path dir) throws Exception
+	{
+		String missing = dir.resolve("missing.ser").toString();
+		Path token = dir.resolve("daemon.token");
+		try(RSADaemon daemon = new RSADaemon(0, 1, token).start();
+				RSAClient client = new RSAClient(daemon.getPort(), token)) {
+			assertThrows(IOException.class, () -> client.encryptFile(missing, missing, missing));
+			assertThrows(IOException.class, () -> client.transformStream(true, missing, new ByteArrayInputStream(new byte[100000]), new ByteArrayOutputStream()));
+			client.ping();
+		}
+	}
+	@Test
+	public void testUnauthorisedConnectionsAreClosed(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		Path input = dir.resolve("plain.bin");
+		Files.write(input, new byte[64]);
+		Path output = dir.resolve("stolen.bin");
+		Path token = dir.resolve("daemon.token");
+		try(RSADaemon daemon = new RSADaemon(0, 1, token).start()) {
+			if(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+				assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(token)));
+			// A browser form posted to the daemon, with a request smuggled into the body
+			String post = "POST / HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Type: text/plain\r\n\r\n"
+					+ "ENCRYPT\t" + pub + "\t" + input + "\t" + output + "\n";
+			assertEquals(1, exchange(daemon.getPort(), post));
+			assertEquals(1, exchange(daemon.getPort(), "AUTH\tguess\nPING\n"));
+			assertFalse(Files.exists(output));
+			Path wrong = dir.resolve("wrong.token");
+			Files.write(wrong, "guess".getBytes(StandardCharsets.US_ASCII));
+			assertThrows(IOException.class, () -> new RSAClient(daemon.getPort(), wrong).close());
+			// Authorised, but a malformed request ends the connection
+			String auth = "AUTH\t" + RSADaemon.readToken(token) + "\n";
+			assertEquals(2, exchange(daemon.getPort(), auth + "ENCRYPT\tkey.ser\tin\tout\nPING\n"));
+			assertEquals(3, exchange(daemon.getPort(), auth + "PING\nBOGUS\nPING\n"));
+		}
+		assertFalse(Files.exists(token));
+	}
+	/**
+	 * Sends raw request bytes and reads status lines until the daemon closes the connection
+	 * @return number of status lines, the last being the only ERROR
+	 */
+	private static int exchange(int port, String requests) throws IOException
+	{
+		try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(requests.getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			socket.shutdownOutput();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			int lines = 0;
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				lines++;
+				if(line.startsWith("ERROR"))
+				{
+					assertNull(reader.readLine());
+					return lines;
+				}
+				assertTrue(line.equals("OK"));
+			}
+			return lines;
+		}
+	}
+}
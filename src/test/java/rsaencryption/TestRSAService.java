@@ -0,0 +1,65 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRSAService
+{
+	@Test
+	public void testConcurrentRequestsMatchSynchronousCalls(@TempDir Path dir) throws Exception
+	{
+		String pub = dir.resolve("publicKey.ser").toString();
+		String pri = dir.resolve("privateKey.ser").toString();
+		KeySet.CreateKeys(pub, pri);
+		int dataBytes = RSA.loadKey(pub).getBlockFormat().getDataBytes();
+		Random random = new Random(17);
+		try(RSAService service = new RSAService(2, true)) {
+			List<byte[]> plains = new ArrayList<>();
+			List<CompletableFuture<byte[]>> roundTrips = new ArrayList<>();
+			for(int i = 0; i < 200; i++)
+			{
+				byte[] plain = new byte[dataBytes * (1 + random.nextInt(50))];
+				random.nextBytes(plain);
+				plains.add(plain);
+				roundTrips.add(service.encrypt(plain, pub).thenCompose(cipher -> service.decrypt(cipher, pri)));
+			}
+			for(int i = 0; i < plains.size(); i++)
+				assertArrayEquals(plains.get(i), roundTrips.get(i).join());
+			// Enough blocks to be split across the compute pool
+			BigInteger[] blocks = new BigInteger[RSA.PARALLEL_THRESHOLD * 3];
+			for(int i = 0; i < blocks.length; i++)
+				blocks[i] = BigInteger.valueOf(random.nextInt(Integer.MAX_VALUE));
+			assertArrayEquals(RSA.performRSA(blocks, pub), service.performRSA(blocks, pub).join());
+			Path input = dir.resolve("plain.bin");
+			Path encrypted = dir.resolve("encrypted.bin");
+			Files.write(input, plains.get(0));
+			service.encryptFile(input.toString(), encrypted.toString(), pub).join();
+			byte[] cipher = service.encrypt(plains.get(0), pub).join();
+			assertArrayEquals(cipher, Arrays.copyOf(Files.readAllBytes(encrypted), cipher.length));
+			assertEquals(cipher.length + LengthTrailer.BYTES, Files.size(encrypted));
+		}
+	}
+	@Test
+	public void testFailuresCompleteExceptionally(@TempDir Path dir)
+	{
+		try(RSAService service = new RSAService(1, false)) {
+			CompletionException ex = assertThrows(CompletionException.class, () -> service.encrypt(new byte[8], dir.resolve("missing.ser").toString()).join());
+			assertTrue(ex.getCause() instanceof IOException);
+		}
+	}
+}
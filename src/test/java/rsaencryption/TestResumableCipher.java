@@ -0,0 +1,94 @@
+package rsaencryption;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestResumableCipher
+{
+	@Test
+	public void testResumesFromLastCheckpoint(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		LoadedKey key = new LoadedKey(keys.publicKey);
+		int chunkBytes = BlockCodec.BATCH_BLOCKS * key.getBlockFormat().getDataBytes();
+		Path input = dir.resolve("plain.bin");
+		Path output = dir.resolve("encrypted.bin");
+		Path expected = dir.resolve("expected.bin");
+		byte[] plain = new byte[chunkBytes * 10 + 5];
+		new Random(37).nextBytes(plain);
+		Files.write(input, plain);
+		String pub = dir.resolve("publicKey.ser").toString();
+		KeySet.writeKeyPair(keys, pub, dir.resolve("privateKey.ser").toString());
+		RSA.encryptFile(input.toString(), expected.toString(), pub);
+		// Checkpoint every 2 chunks and die after 7; the last checkpoint is at 6
+		assertEquals(0L, ResumableCipher.transform(input, output, key, true, 2L * chunkBytes, 7L * chunkBytes, null, 1));
+		assertTrue(Files.exists(ResumableCipher.checkpointPath(output)));
+		// Bytes written after the checkpoint, as a torn write would leave them
+		try(RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+			file.setLength(file.length() + 3);
+		}
+		assertEquals(6L * chunkBytes, ResumableCipher.transform(input, output, key, true, 2L * chunkBytes, Long.MAX_VALUE, null, 1));
+		assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(output));
+		assertFalse(Files.exists(ResumableCipher.checkpointPath(output)));
+	}
+	@Test
+	public void testStartsOverWhenOutputIsDamaged(@TempDir Path dir) throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		LoadedKey key = new LoadedKey(keys.publicKey);
+		int chunkBytes = BlockCodec.BATCH_BLOCKS * key.getBlockFormat().getDataBytes();
+		Path input = dir.resolve("plain.bin");
+		Path output = dir.resolve("encrypted.bin");
+		byte[] plain = new byte[chunkBytes * 4];
+		new Random(41).nextBytes(plain);
+		Files.write(input, plain);
+		ResumableCipher.transform(input, output, key, true, chunkBytes, 3L * chunkBytes, null, 1);
+		try(RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+			file.seek(100);
+			int b = file.read();
+			file.seek(100);
+			file.write(b ^ 1);
+		}
+		assertEquals(0L, ResumableCipher.transform(input, output, key, true, chunkBytes, Long.MAX_VALUE, null, 1));
+		Path decrypted = dir.resolve("decrypted.bin");
+		ResumableCipher.transform(output, decrypted, new LoadedKey(keys.privateKey), false, chunkBytes, Long.MAX_VALUE, null, 1);
+		assertArrayEquals(plain, Files.readAllBytes(decrypted));
+	}
+	@Test
+	public void testInputShrinkingDuringRunFails(@TempDir Path dir) throws Exception
+	{
+		LoadedKey key = new LoadedKey(KeySet.generateKeyPair(64).publicKey);
+		int chunkBytes = BlockCodec.BATCH_BLOCKS * key.getBlockFormat().getDataBytes();
+		Path input = dir.resolve("plain.bin");
+		Path output = dir.resolve("encrypted.bin");
+		Files.write(input, new byte[chunkBytes * 4]);
+		// The first chunk's key pass cuts the input short, as another process truncating it would
+		Executor shrinking = task -> {
+			try(RandomAccessFile file = new RandomAccessFile(input.toFile(), "rw")) {
+				if(file.length() > chunkBytes)
+					file.setLength(chunkBytes + 5);
+			} catch(IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			task.run();
+		};
+		IOException ex = assertTimeoutPreemptively(Duration.ofSeconds(30),
+				() -> assertThrows(IOException.class, () -> ResumableCipher.transform(input, output, key, true, chunkBytes, Long.MAX_VALUE, shrinking, 2)));
+		assertEquals("File shrank while it was read", ex.getMessage());
+	}
+}
@@ -0,0 +1,123 @@
+package rsaencryption;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class TestStreamAdapters
+{
+	@Test
+	public void testStreamsMatchEncryptStream() throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(128);
+		LoadedKey publicKey = new LoadedKey(keys.publicKey);
+		LoadedKey privateKey = new LoadedKey(keys.privateKey);
+		byte[] plain = new byte[publicKey.getBlockFormat().getDataBytes() * BlockCodec.BATCH_BLOCKS * 2 + 1000];
+		Random random = new Random(29);
+		random.nextBytes(plain);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		RSA.encryptStream(new ByteArrayInputStream(plain), expected, publicKey, null, 1);
+		// Writes of odd sizes with flushes in between
+		ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+		try(RSAOutputStream out = new RSAOutputStream(sealed, publicKey, true)) {
+			for(int off = 0; off < plain.length;)
+			{
+				int n = Math.min(plain.length - off, random.nextInt(5000));
+				out.write(plain, off, n);
+				off += n;
+				if(random.nextInt(4) == 0)
+					out.flush();
+			}
+		}
+		assertArrayEquals(expected.toByteArray(), sealed.toByteArray());
+		ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+		RSA.decryptStream(new ByteArrayInputStream(sealed.toByteArray()), decrypted, privateKey, null, 1);
+		try(InputStream in = new RSAInputStream(new ByteArrayInputStream(sealed.toByteArray()), privateKey, false)) {
+			assertArrayEquals(decrypted.toByteArray(), readAll(in, random));
+		}
+	}
+	@Test
+	public void testWholeBlocksDoNotWaitForFullBatch() throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(128);
+		LoadedKey publicKey = new LoadedKey(keys.publicKey);
+		BlockFormat format = publicKey.getBlockFormat();
+		byte[] plain = new byte[format.getDataBytes() * 3 + 5];
+		new Random(31).nextBytes(plain);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		RSA.encryptStream(new ByteArrayInputStream(plain), expected, publicKey, null, 1);
+		PipedOutputStream source = new PipedOutputStream();
+		try(InputStream in = new RSAInputStream(new PipedInputStream(source, plain.length), publicKey, true)) {
+			// Three whole blocks and part of the fourth, with the source left open
+			source.write(plain, 0, plain.length - 2);
+			byte[] first = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+				byte[] blocks = new byte[format.getBlockBytes() * 3];
+				for(int off = 0; off < blocks.length;)
+					off += in.read(blocks, off, blocks.length - off);
+				return blocks;
+			});
+			assertArrayEquals(Arrays.copyOf(expected.toByteArray(), first.length), first);
+			source.write(plain, plain.length - 2, 2);
+			source.close();
+			byte[] rest = readAll(in, new Random(3));
+			assertArrayEquals(Arrays.copyOfRange(expected.toByteArray(), first.length, expected.size()), rest);
+		}
+	}
+	@Test
+	public void testChannelsWithDirectBuffers() throws Exception
+	{
+		KeyPair keys = KeySet.generateKeyPair(64);
+		LoadedKey publicKey = new LoadedKey(keys.publicKey);
+		LoadedKey privateKey = new LoadedKey(keys.privateKey);
+		byte[] plain = new byte[publicKey.getBlockFormat().getDataBytes() * 30000];
+		new Random(31).nextBytes(plain);
+		ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+		ByteBuffer direct = ByteBuffer.allocateDirect(4096);
+		try(WritableByteChannel out = RSAChannels.newWritableChannel(Channels.newChannel(sealed), publicKey, true)) {
+			for(int off = 0; off < plain.length; off += direct.capacity())
+			{
+				direct.clear();
+				direct.put(plain, off, Math.min(direct.capacity(), plain.length - off)).flip();
+				while(direct.hasRemaining())
+					out.write(direct);
+			}
+		}
+		ByteArrayOutputStream opened = new ByteArrayOutputStream();
+		try(ReadableByteChannel in = RSAChannels.newReadableChannel(Channels.newChannel(new ByteArrayInputStream(sealed.toByteArray())), privateKey, false)) {
+			byte[] chunk = new byte[direct.capacity()];
+			direct.clear();
+			while(in.read(direct) >= 0)
+			{
+				direct.flip();
+				int n = direct.remaining();
+				direct.get(chunk, 0, n);
+				opened.write(chunk, 0, n);
+				direct.clear();
+			}
+		}
+		assertArrayEquals(plain, opened.toByteArray());
+	}
+	private static byte[] readAll(InputStream in, Random random) throws IOException
+	{
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7000];
+		int n;
+		while((n = in.read(buffer, 0, 1 + random.nextInt(buffer.length))) >= 0)
+			all.write(buffer, 0, n);
+		return all.toByteArray();
+	}
+}